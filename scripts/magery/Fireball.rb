@@ -48,7 +48,7 @@ class Fireball < BaseSpellHandler
       
       $api.throwFireball(player, target)
       $api.playSoundNearObj(player, sound)
-      target.dealDamage(damage, player)      
+      $api.dealDamage(target, damage, player)      
     end
   end
 end
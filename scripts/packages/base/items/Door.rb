@@ -112,7 +112,7 @@ class Door
 
     # closeAt is used when people close and open the door while the timer is active
     $api.setObjectProperty(door, "closeAt", $api.getTimerTicks() + @@auto_close_time)
-    $api.addTimer(@@auto_close_time) do
+    $api.addTimer(@@auto_close_time, door) do
       close(door) if $api.getObjectProperty(door, "closeAt") <= $api.getTimerTicks()
     end
   end
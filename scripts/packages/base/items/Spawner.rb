@@ -112,7 +112,7 @@ class Spawner
       newSpawnList << npc.getSerial()
     end
     $api.setObjectProperty(spawner, "spawned", newSpawnList)
-    $api.addTimer(duration * 1000 * 60) do
+    $api.addTimer(duration * 1000 * 60, spawner) do
       spawnLoop(spawner)
     end
   end
@@ -27,7 +27,7 @@ class TempItem
 
   def onBehaviorChange(item)
     duration = $api.getObjectProperty(item, "duration")
-    $api.addTimer(duration) do
+    $api.addTimer(duration, item) do
       $api.deleteObject(item)
     end
   end
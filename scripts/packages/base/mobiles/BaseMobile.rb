@@ -98,7 +98,7 @@ class BaseMobile
     end
     $api.runAway(mob, nearest)
     # No matter if running away worked or not: try again after delay, opponent could change direction
-    $api.addTimer(@@run_delay) { runAway(mob) }
+    $api.addTimer(@@run_delay, mob) { runAway(mob) }
   end
 
   # Fight nearest victim
@@ -154,7 +154,7 @@ class BaseMobile
     end
     
     # In both cases we need to check again because the victim could run away
-    $api.addTimer(@@run_delay) { doFight(mob, victim) }
+    $api.addTimer(@@run_delay, mob) { doFight(mob, victim) }
   end
 
   def onAttacked(mob, attacker)
@@ -22,7 +22,9 @@ import java.io.*;
 import java.util.logging.*;
 
 import org.solhost.folko.uosl.common.LogFormatter;
+import org.solhost.folko.uosl.jphex.engines.GameLoop;
 import org.solhost.folko.uosl.jphex.engines.TimerQueue;
+import org.solhost.folko.uosl.jphex.network.PacketQueue;
 import org.solhost.folko.uosl.jphex.network.Server;
 import org.solhost.folko.uosl.jphex.scripting.ScriptAPI;
 import org.solhost.folko.uosl.jphex.scripting.ScriptAPIImpl;
@@ -37,6 +39,10 @@ public class JPhex {
     private Server server;
     private Thread serverThread;
     private PacketHandler handler;
+    private GameLoop gameLoop;
+    private long tickMillis;
+    private int timerWorkers;
+    private File captureDirectory;
     private boolean stopped;
 
     public JPhex(Level logLevel) {
@@ -51,6 +57,21 @@ public class JPhex {
         log.info("Copyright 2003-2004, 2013 by Folke Will");
     }
 
+    // number of threads that run timers when there is no game loop
+    public void setTimerWorkers(int timerWorkers) {
+        this.timerWorkers = timerWorkers;
+    }
+
+    // run the game logic in ticks of this length from a single thread, 0 to disable
+    public void setTickMillis(long tickMillis) {
+        this.tickMillis = tickMillis;
+    }
+
+    // record the packets of every client into this directory, null to disable
+    public void setCaptureDirectory(File captureDirectory) {
+        this.captureDirectory = captureDirectory;
+    }
+
     public boolean loadData(String dataPath) {
         log.info("Loading client data... ");
         try {
@@ -78,7 +99,11 @@ public class JPhex {
             world = World.loadOrCreateNew(savePath);
             ScriptAPI api = new ScriptAPIImpl(world);
             ScriptManager.instance().setGlobal("$api", api);
-            TimerQueue.start();
+            if(tickMillis > 0) {
+                TimerQueue.startManual();
+            } else {
+                TimerQueue.start(timerWorkers);
+            }
             world.init();
             return true;
         } catch (Exception e) {
@@ -87,11 +112,23 @@ public class JPhex {
         }
     }
 
-    public boolean runServer(int port) {
+    // reactors: number of network I/O threads, 0 to do everything in one thread
+    public boolean runServer(int port, int reactors) {
         log.info("Starting network on port " + port + "... ");
         this.handler = new PacketHandler(world);
 
-        server = new Server(port, handler);
+        if(tickMillis > 0) {
+            PacketQueue packetQueue = new PacketQueue(handler);
+            server = new Server(port, packetQueue, reactors);
+            server.setBatchedFlush(true);
+            gameLoop = new GameLoop(tickMillis, packetQueue, server);
+        } else {
+            server = new Server(port, handler, reactors);
+        }
+        if(captureDirectory != null) {
+            captureDirectory.mkdirs();
+            server.setCaptureDirectory(captureDirectory);
+        }
         try {
             server.listen();
         } catch (IOException e) {
@@ -113,6 +150,9 @@ public class JPhex {
     }
 
     public void startEventLoop() {
+        if(gameLoop != null) {
+            gameLoop.start();
+        }
         serverThread.start();
         log.info("JPhex running...");
     }
@@ -124,6 +164,9 @@ public class JPhex {
     public void halt() {
         log.info("Shutting down...");
         TimerQueue.stop();
+        if(gameLoop != null) {
+            gameLoop.stop();
+        }
         if(serverThread != null) {
             serverThread.interrupt();
             try {
@@ -140,7 +183,26 @@ public class JPhex {
     }
 
     public static void main(String[] args) throws IOException {
+        int reactors = 0;
+        long tickMillis = 0;
+        int timerWorkers = 1;
+        File captureDirectory = null;
+        for(int i = 0; i + 1 < args.length; i++) {
+            if(args[i].equals("-reactors")) {
+                reactors = Integer.parseInt(args[i + 1]);
+            } else if(args[i].equals("-tick")) {
+                tickMillis = Long.parseLong(args[i + 1]);
+            } else if(args[i].equals("-timerthreads")) {
+                timerWorkers = Integer.parseInt(args[i + 1]);
+            } else if(args[i].equals("-capture")) {
+                captureDirectory = new File(args[i + 1]);
+            }
+        }
+
         JPhex phex = new JPhex(Level.INFO);
+        phex.setTickMillis(tickMillis);
+        phex.setTimerWorkers(timerWorkers);
+        phex.setCaptureDirectory(captureDirectory);
         if(!phex.loadData("data/")) {
             phex.halt();
             return;
@@ -153,7 +215,7 @@ public class JPhex {
             phex.halt();
             return;
         }
-        if(!phex.runServer(2590)) {
+        if(!phex.runServer(2590, reactors)) {
             phex.halt();
             return;
         }
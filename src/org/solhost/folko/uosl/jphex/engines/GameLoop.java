@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.jphex.engines;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.solhost.folko.uosl.jphex.network.PacketQueue;
+import org.solhost.folko.uosl.jphex.network.Server;
+
+// runs the game logic from a single thread in ticks of fixed length. Each tick handles
+// the network events that came in since the last tick and then the due timers, so
+// nothing else changes the world concurrently. Needs a manually started TimerQueue
+// and replaces the game logic thread of the server. The packets of a tick are flushed
+// together at its end, so the server should be in batched flush mode
+public class GameLoop {
+    private static final Logger log = Logger.getLogger("jphex.gameloop");
+    private static final int STATS_INTERVAL = 1200; // ticks between statistics
+    private final long tickNanos;
+    private final PacketQueue packets;
+    private final Server server;
+    private final Thread thread;
+    private volatile boolean wantStop;
+    private long statTicks, statNanos, statMaxNanos, statOverruns;
+
+    public GameLoop(long tickMillis, PacketQueue packets, Server server) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.packets = packets;
+        this.server = server;
+        this.thread = new Thread("game loop") {
+            @Override
+            public void run() {
+                loop();
+            }
+        };
+    }
+
+    public void start() {
+        log.info("Running game logic in ticks of " + TimeUnit.NANOSECONDS.toMillis(tickNanos) + " ms");
+        thread.start();
+    }
+
+    public void stop() {
+        wantStop = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            // doesn't matter as we're stopping anyways
+        }
+    }
+
+    private void loop() {
+        long nextTick = System.nanoTime();
+        while(!wantStop) {
+            long start = System.nanoTime();
+            try {
+                packets.drain();
+                TimerQueue.get().runDueTimers();
+            } catch(Exception e) {
+                log.log(Level.SEVERE, "Exception in game loop: " + e, e);
+            }
+            server.flush();
+            long duration = System.nanoTime() - start;
+            updateStats(duration);
+
+            nextTick += tickNanos;
+            long sleep = nextTick - System.nanoTime();
+            if(sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+            } else {
+                // too slow, don't try to catch up with the missed ticks
+                nextTick = System.nanoTime();
+            }
+        }
+    }
+
+    private void updateStats(long duration) {
+        statTicks++;
+        statNanos += duration;
+        statMaxNanos = Math.max(statMaxNanos, duration);
+        if(duration > tickNanos) {
+            statOverruns++;
+        }
+        if(statTicks == STATS_INTERVAL) {
+            log.fine(String.format("Ticks: average %.2f ms, max %.2f ms, %d overruns",
+                    statNanos / (double) statTicks / 1000000.0, statMaxNanos / 1000000.0, statOverruns));
+            statTicks = 0;
+            statNanos = 0;
+            statMaxNanos = 0;
+            statOverruns = 0;
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.solhost.folko.uosl.jphex.engines;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.solhost.folko.uosl.jphex.network.PacketFrame;
 import org.solhost.folko.uosl.jphex.types.Player;
 import org.solhost.folko.uosl.libuosl.network.packets.GroupPacket;
 import org.solhost.folko.uosl.libuosl.network.packets.SendTextPacket;
@@ -141,9 +142,9 @@ public class Group {
             player.sendSysMessage("You are not in a group. Switch back to normal speech mode using the ' key");
             return;
         }
-        SendTextPacket packet = new SendTextPacket(player, SendTextPacket.MODE_SYSMSG, color, line);
+        PacketFrame frame = new PacketFrame(new SendTextPacket(player, SendTextPacket.MODE_SYSMSG, color, line));
         for(Player member : group.members) {
-            member.sendPacket(packet);
+            member.sendFrame(frame);
         }
     }
 
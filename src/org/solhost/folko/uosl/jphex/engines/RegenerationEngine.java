@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.jphex.engines;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.solhost.folko.uosl.jphex.types.Mobile;
+
+// regenerates the stats of all mobiles that need it in one sweep per interval instead of
+// a timer per mobile. The refresh-running flag of a mobile tells whether it's in the list.
+// The listener runs the sweeps so that it can hold its own lock and batch the stat updates
+public class RegenerationEngine {
+    private final RegenerationListener listener;
+    private final List<Mobile> mobiles;
+    private final Timer sweepTimer;
+    private boolean scheduled;
+
+    public interface RegenerationListener {
+        // time for the next sweep, the listener should call sweep()
+        public void onRegenerationDue();
+    }
+
+    public RegenerationEngine(RegenerationListener listener, long intervalMillis) {
+        this.listener = listener;
+        this.mobiles = new ArrayList<Mobile>();
+        // no key: the sweep modifies all mobiles in the list, so it has to run alone
+        this.sweepTimer = new Timer(intervalMillis, new Runnable() {
+            public void run() {
+                onSweepTimer();
+            }
+        });
+    }
+
+    // add a mobile if it needs to regenerate and isn't in the list already
+    public synchronized void add(Mobile mob) {
+        if(mob.isRefreshRunning() || !mob.needsRefresh()) {
+            return;
+        }
+        mob.setRefreshRunning(true);
+        mobiles.add(mob);
+        if(!scheduled) {
+            scheduled = true;
+            sweepTimer.reset();
+            TimerQueue.get().addTimer(sweepTimer);
+        }
+    }
+
+    public synchronized int size() {
+        return mobiles.size();
+    }
+
+    // do one regeneration step for every mobile in the list and drop the ones that
+    // are done, returns how many were refreshed
+    public synchronized int sweep() {
+        int count = 0, kept = 0;
+        for(int i = 0; i < mobiles.size(); i++) {
+            Mobile mob = mobiles.get(i);
+            if(mob.needsRefresh() && mob.canRefresh()) {
+                mob.doRefreshStep();
+                count++;
+            }
+            if(mob.needsRefresh() && mob.canRefresh()) {
+                mobiles.set(kept++, mob);
+            } else {
+                mob.setRefreshRunning(false);
+            }
+        }
+        mobiles.subList(kept, mobiles.size()).clear();
+        return count;
+    }
+
+    private void onSweepTimer() {
+        listener.onRegenerationDue();
+        synchronized(this) {
+            if(mobiles.isEmpty()) {
+                scheduled = false;
+            } else {
+                sweepTimer.reset();
+                TimerQueue.get().addTimer(sweepTimer);
+            }
+        }
+    }
+}
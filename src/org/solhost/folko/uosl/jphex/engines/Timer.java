@@ -18,51 +18,83 @@
  ******************************************************************************/
 package org.solhost.folko.uosl.jphex.engines;
 
-import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
 
-public class Timer implements Delayed {
+// a callback that the TimerQueue runs after a delay. The timer itself is the handle
+// for the scheduled run: it can be cancelled and it can be added again after it ran.
+// Timers with the same key run in order and never at the same time, timers with
+// different keys can run in parallel. A timer without a key runs alone: no other timer
+// runs at the same time. So a timer that only modifies one mobile uses that mobile as
+// key and a timer that modifies several mobiles, e.g. a fight round, uses no key
+public class Timer {
+    // the ticks are monotonic, but start at the wall clock time so that stored tick
+    // values stay roughly meaningful across restarts
+    private static final long BASE_MILLIS = System.currentTimeMillis();
+    private static final long BASE_NANOS = System.nanoTime();
+
     private final Runnable what;
+    private final Object key;
     private final long delay;
     private long when;
+    volatile boolean cancelled;
+
+    // managed by the TimerQueue while the timer is scheduled
+    volatile TimerQueue queue;
+    Timer prev, next;
+    int level, slot;
+    long seq; // order of the addTimer calls, for timers that are due at the same tick
 
-    // call in n milliseconds
+    // call in n milliseconds, runs alone
     public Timer(long milliseconds, Runnable what) {
+        this(milliseconds, null, what);
+    }
+
+    // key: the only object that the timer modifies, null if it modifies several
+    public Timer(long milliseconds, Object key, Runnable what) {
         this.delay = milliseconds;
         this.when = getCurrentTicks() + delay;
+        this.key = key;
         this.what = what;
     }
 
-    // base reference for timers
+    // base reference for timers, in milliseconds
     public static long getCurrentTicks() {
-        return System.currentTimeMillis();
+        return BASE_MILLIS + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - BASE_NANOS);
     }
 
     public void reset() {
         this.when = getCurrentTicks() + delay;
+        this.cancelled = false;
     }
 
-    public void run() {
-        what.run();
+    public Object getKey() {
+        return key;
     }
 
-    @Override
-    public long getDelay(TimeUnit unit) {
-        long delta = when - getCurrentTicks();
-        return unit.convert(delta, TimeUnit.MILLISECONDS);
+    public long getWhen() {
+        return when;
     }
 
-    @Override
-    public int compareTo(Delayed o) {
-        long delta = this.getDelay(TimeUnit.MILLISECONDS) - o.getDelay(TimeUnit.MILLISECONDS);
-        if(delta > 0) {
-            // We should expire later
-            return 1;
-        } else if(delta < 0) {
-            // We should expire sooner
-            return -1;
-        } else {
-            return 0;
+    // prevent the timer from running, it can be reset and added again later
+    public void cancel() {
+        cancelled = true;
+        TimerQueue owner = queue;
+        if(owner != null) {
+            owner.removeTimer(this);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isScheduled() {
+        return queue != null;
+    }
+
+    public void run() {
+        if(!cancelled) {
+            what.run();
         }
     }
 }
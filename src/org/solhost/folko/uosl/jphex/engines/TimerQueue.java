@@ -18,20 +18,73 @@
  ******************************************************************************/
 package org.solhost.folko.uosl.jphex.engines;
 
-import java.util.concurrent.DelayQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+// hierarchical timing wheel with a resolution of one millisecond: level 0 has a slot
+// per millisecond, each higher level covers 256 times the range of the one below it.
+// Adding and cancelling are O(1), the timers of a higher level slot are cascaded into
+// the lower levels when the wheel reaches that slot. Timers further away than the
+// range of all levels stay in the top level until they come into range.
+// Timers that are due at the same tick run in the order in which they were added.
+// With more than one worker, the timer thread only hands the due timers to the workers:
+// each worker owns a partition of the timer keys, so timers with the same key keep their
+// order and a slow timer only holds up the timers of its own partition. Timers without
+// a key all go to the first worker and run with the exclusive lock, i.e. they wait for
+// the running timers of the other workers and no other timer starts until they're done
 public class TimerQueue {
-    private final DelayQueue<Timer> timers;
     private static final Logger log = Logger.getLogger("jphex.timerqueue");
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+    private static final Comparator<Timer> DUE_ORDER = new Comparator<Timer>() {
+        public int compare(Timer a, Timer b) {
+            if(a.getWhen() != b.getWhen()) {
+                return a.getWhen() < b.getWhen() ? -1 : 1;
+            }
+            return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+        }
+    };
     private static TimerQueue instance;
+    private final Timer[][] wheel;
+    private final List<Timer> due;
     private final Thread timerThread;
-    private boolean wantStop;
+    private final List<BlockingQueue<Timer>> partitions;
+    private final List<Thread> workers;
+    private final ReadWriteLock runLock; // shared for keyed timers, exclusive for the others
+    private long currentTick; // all ticks before this one have been handled
+    private long wakeAt; // when the timer thread wakes up, MIN_VALUE if it isn't waiting
+    private int size;
+    private long nextSeq;
+    private volatile boolean wantStop;
 
-    private TimerQueue() {
-        this.timers = new DelayQueue<Timer>();
-        this.timerThread = getTimerThread();
+    private TimerQueue(boolean ownThread, int workerCount) {
+        this.wheel = new Timer[LEVELS][SLOTS];
+        this.due = new ArrayList<Timer>();
+        this.currentTick = Timer.getCurrentTicks();
+        this.wakeAt = Long.MIN_VALUE;
+        this.timerThread = ownThread ? getTimerThread() : null;
+        this.partitions = new ArrayList<BlockingQueue<Timer>>();
+        this.workers = new ArrayList<Thread>();
+        this.runLock = new ReentrantReadWriteLock();
+        if(workerCount > 1) {
+            for(int i = 0; i < workerCount; i++) {
+                BlockingQueue<Timer> partition = new LinkedBlockingQueue<Timer>();
+                partitions.add(partition);
+                workers.add(getWorkerThread(i, partition));
+            }
+        }
     }
 
     public static TimerQueue get() {
@@ -42,52 +95,283 @@ public class TimerQueue {
     }
 
     public static void start() {
+        start(1);
+    }
+
+    // workers: number of threads that run the timers, 1 to run them in the timer thread
+    public static void start(int workers) {
         if(instance != null) {
             log.severe("timer queue initialized twice");
             return;
         }
-        instance = new TimerQueue();
+        instance = new TimerQueue(true, workers);
         instance.startTimerThread();
     }
 
+    // start without a thread, the timers are then run by calling runDueTimers
+    public static void startManual() {
+        if(instance != null) {
+            log.severe("timer queue initialized twice");
+            return;
+        }
+        instance = new TimerQueue(false, 1);
+    }
+
     public static void stop() {
         if(instance == null) {
             return;
         }
         instance.wantStop = true;
-        if(instance.timerThread != null) {
-            instance.timerThread.interrupt();
+        if(instance.timerThread == null) {
+            return;
+        }
+        instance.timerThread.interrupt();
+        for(Thread worker : instance.workers) {
+            worker.interrupt();
         }
         try {
             instance.timerThread.join();
+            for(Thread worker : instance.workers) {
+                worker.join();
+            }
         } catch (InterruptedException e) {
             // doesn't matter as we're stopping anyways
         }
     }
 
-    public void addTimer(Timer timer) {
-        timers.add(timer);
+    // schedule a timer, a timer that is already scheduled is moved to its new time
+    public synchronized Timer addTimer(Timer timer) {
+        if(timer.queue == this) {
+            unlink(timer);
+        } else if(timer.queue != null) {
+            timer.queue.removeTimer(timer);
+        }
+        timer.cancelled = false;
+        timer.queue = this;
+        timer.seq = nextSeq++;
+        place(timer);
+        size++;
+        if(timer.getWhen() < wakeAt) {
+            notify();
+        }
+        return timer;
+    }
+
+    // called by Timer.cancel
+    synchronized void removeTimer(Timer timer) {
+        if(timer.queue == this) {
+            unlink(timer);
+            timer.queue = null;
+            size--;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // run all timers that are due now, returns how many were run
+    public int runDueTimers() {
+        synchronized(this) {
+            collectDue(Timer.getCurrentTicks());
+        }
+        return runCollected();
+    }
+
+    private void place(Timer timer) {
+        long when = Math.max(timer.getWhen(), currentTick);
+        long delta = when - currentTick;
+        if(delta > MAX_DELTA) {
+            // out of range, the top level will cascade it again
+            when = currentTick + MAX_DELTA;
+            delta = MAX_DELTA;
+        }
+
+        int level = 0;
+        while(level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((when >>> (SLOT_BITS * level)) & MASK);
+
+        Timer head = wheel[level][slot];
+        timer.level = level;
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = head;
+        if(head != null) {
+            head.prev = timer;
+        }
+        wheel[level][slot] = timer;
+    }
+
+    private void unlink(Timer timer) {
+        if(timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            wheel[timer.level][timer.slot] = timer.next;
+        }
+        if(timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+    }
+
+    // advance the wheel up to now and move the expired timers to the due list
+    private void collectDue(long now) {
+        while(currentTick <= now) {
+            int index = (int) (currentTick & MASK);
+            if(index == 0) {
+                cascade(1);
+            }
+            Timer timer = wheel[0][index];
+            wheel[0][index] = null;
+            int first = due.size();
+            while(timer != null) {
+                Timer next = timer.next;
+                timer.prev = null;
+                timer.next = null;
+                timer.queue = null;
+                size--;
+                due.add(timer);
+                timer = next;
+            }
+            if(due.size() - first > 1) {
+                // the slot lists aren't ordered, cascading mixes them up
+                Collections.sort(due.subList(first, due.size()), DUE_ORDER);
+            }
+            currentTick++;
+        }
+    }
+
+    // move the timers of the current slot of a level into the lower levels
+    private void cascade(int level) {
+        if(level >= LEVELS) {
+            return;
+        }
+        int index = (int) ((currentTick >>> (SLOT_BITS * level)) & MASK);
+        Timer timer = wheel[level][index];
+        wheel[level][index] = null;
+        while(timer != null) {
+            Timer next = timer.next;
+            place(timer);
+            timer = next;
+        }
+        if(index == 0) {
+            cascade(level + 1);
+        }
+    }
+
+    // milliseconds until the wheel has to be advanced again
+    private long millisUntilNextSlot() {
+        for(int i = 0; i < SLOTS; i++) {
+            long tick = currentTick + i;
+            if(wheel[0][(int) (tick & MASK)] != null || (tick & MASK) == 0) {
+                return Math.max(1, tick - Timer.getCurrentTicks());
+            }
+        }
+        return SLOTS;
+    }
+
+    // runs the timers outside of the lock so that they can add new timers
+    private int runCollected() {
+        int count = 0;
+        for(Timer timer : due) {
+            if(wantStop) {
+                break;
+            }
+            runTimer(timer);
+            count++;
+        }
+        due.clear();
+        return count;
+    }
+
+    private void runTimer(Timer timer) {
+        try {
+            timer.run();
+        } catch(Exception e) {
+            log.log(Level.SEVERE, "Exception in timer: " + e, e);
+        }
+    }
+
+    // hand the collected timers to the workers that own their keys
+    private void dispatchCollected() {
+        for(Timer timer : due) {
+            Object key = timer.getKey();
+            if(key == null) {
+                partitions.get(0).add(timer);
+                continue;
+            }
+            int hash = key.hashCode();
+            hash ^= hash >>> 16;
+            partitions.get((hash & Integer.MAX_VALUE) % partitions.size()).add(timer);
+        }
+        due.clear();
     }
 
     private void timerLoop() {
         log.fine("TimerQueue active");
+        while(!wantStop) {
+            synchronized(this) {
+                collectDue(Timer.getCurrentTicks());
+                if(due.isEmpty()) {
+                    long wait = millisUntilNextSlot();
+                    wakeAt = Timer.getCurrentTicks() + wait;
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        if(wantStop) {
+                            break;
+                        }
+                    } finally {
+                        wakeAt = Long.MIN_VALUE;
+                    }
+                    continue;
+                }
+            }
+            if(partitions.isEmpty()) {
+                runCollected();
+            } else {
+                dispatchCollected();
+            }
+        }
+        log.fine("TimerQueue inactive");
+    }
+
+    private void workerLoop(BlockingQueue<Timer> partition) {
         while(!wantStop) {
             try {
-                Timer first = timers.take();
-                first.run();
+                runLocked(partition.take());
             } catch (InterruptedException e) {
                 if(wantStop) {
                     break;
                 }
-            } catch(Exception e) {
-                log.log(Level.SEVERE, "Exception in timer: " + e, e);
             }
         }
-        log.fine("TimerQueue inactive");
+    }
+
+    private void runLocked(Timer timer) {
+        Lock lock = timer.getKey() != null ? runLock.readLock() : runLock.writeLock();
+        lock.lock();
+        try {
+            runTimer(timer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Thread getWorkerThread(int index, final BlockingQueue<Timer> partition) {
+        return new Thread("timer worker " + index) {
+            @Override
+            public void run() {
+                workerLoop(partition);
+            }
+        };
     }
 
     private Thread getTimerThread() {
-        return new Thread() {
+        return new Thread("timer queue") {
             @Override
             public void run() {
                 timerLoop();
@@ -96,6 +380,9 @@ public class TimerQueue {
     }
 
     private void startTimerThread() {
+        for(Thread worker : workers) {
+            worker.start();
+        }
         timerThread.start();
     }
 }
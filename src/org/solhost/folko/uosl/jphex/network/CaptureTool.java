@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.jphex.network;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import org.solhost.folko.uosl.libuosl.network.packets.SLPacket;
+
+// prints a PacketCapture or replays its inbound packets against a server
+public class CaptureTool {
+    private final DataInputStream in;
+    private long time;
+    private byte direction;
+    private byte[] data;
+
+    private CaptureTool(String fileName) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+        if(in.readInt() != PacketCapture.MAGIC) {
+            throw new IOException("not a packet capture");
+        }
+        short version = in.readShort();
+        if(version != PacketCapture.VERSION) {
+            throw new IOException("unsupported capture version " + version);
+        }
+        Date start = new Date(in.readLong());
+        String remote = in.readUTF();
+        System.out.println("# capture of " + remote + " started " + start);
+    }
+
+    private boolean nextRecord() throws IOException {
+        try {
+            time = in.readLong();
+        } catch(EOFException e) {
+            return false;
+        }
+        direction = in.readByte();
+        data = new byte[in.readUnsignedShort()];
+        in.readFully(data);
+        return true;
+    }
+
+    private void dump() throws IOException {
+        while(nextRecord()) {
+            String decoded;
+            try {
+                SLPacket packet = SLPacket.readPacket(ByteBuffer.wrap(data));
+                decoded = (packet != null) ? packet.getClass().getSimpleName() : "incomplete";
+            } catch(Exception e) {
+                decoded = "undecodable: " + e.getMessage();
+            }
+            StringBuilder hex = new StringBuilder(data.length * 2);
+            for(byte b : data) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            System.out.println(String.format("%10.3f %s %02X %-22s %s", time / 1000000000.0,
+                    direction == PacketCapture.INBOUND ? "<-" : "->", data[1] & 0xFF, decoded, hex));
+        }
+    }
+
+    // send the inbound packets with their original timing, divided by speed
+    private void replay(String host, int port, double speed) throws IOException, InterruptedException {
+        final Socket socket = new Socket(host, port);
+        Thread drain = new Thread("capture drain") {
+            @Override
+            public void run() {
+                byte[] buf = new byte[8192];
+                try {
+                    InputStream sin = socket.getInputStream();
+                    while(sin.read(buf) != -1) {
+                        // answers of the server aren't checked
+                    }
+                } catch(IOException e) {
+                    // socket closed
+                }
+            }
+        };
+        drain.setDaemon(true);
+        drain.start();
+
+        OutputStream out = socket.getOutputStream();
+        long start = System.nanoTime();
+        int sent = 0;
+        while(nextRecord()) {
+            if(direction != PacketCapture.INBOUND) {
+                continue;
+            }
+            long wait = (long) (time / speed) - (System.nanoTime() - start);
+            if(wait > 0) {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            }
+            out.write(data);
+            sent++;
+        }
+        out.flush();
+        System.out.println("# replayed " + sent + " packets");
+        socket.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length == 2 && args[0].equals("dump")) {
+            new CaptureTool(args[1]).dump();
+        } else if(args.length >= 4 && args[0].equals("replay")) {
+            double speed = (args.length > 4) ? Double.parseDouble(args[4]) : 1.0;
+            new CaptureTool(args[1]).replay(args[2], Integer.parseInt(args[3]), speed);
+        } else {
+            System.err.println("usage: CaptureTool dump <file>");
+            System.err.println("       CaptureTool replay <file> <host> <port> [speed]");
+            System.exit(1);
+        }
+    }
+}
@@ -18,30 +18,76 @@
  ******************************************************************************/
 package org.solhost.folko.uosl.jphex.network;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.solhost.folko.uosl.libuosl.network.SendableItem;
+import org.solhost.folko.uosl.libuosl.network.SendableMobile;
+import org.solhost.folko.uosl.libuosl.network.SendableObject;
+import org.solhost.folko.uosl.libuosl.network.packets.EquipPacket;
+import org.solhost.folko.uosl.libuosl.network.packets.LocationPacket;
+import org.solhost.folko.uosl.libuosl.network.packets.ReusablePackets;
 import org.solhost.folko.uosl.libuosl.network.packets.SLPacket;
+import org.solhost.folko.uosl.libuosl.network.packets.SendObjectPacket;
+import org.solhost.folko.uosl.libuosl.network.packets.SendTextPacket;
+import org.solhost.folko.uosl.libuosl.network.packets.StatsUpdatePacket;
 
 public class Client {
+    // decides what happens when a client can't keep up with the data that is sent to it
+    public interface CongestionPolicy {
+        public void onCongested(Client client);
+        public void onRecovered(Client client, int droppedPackets);
+        // whether a droppable packet should be skipped while congested
+        public boolean dropWhileCongested(Client client, short packetID);
+    }
+
     private static final Logger log = Logger.getLogger("jphex.client");
     private static final int BUFFER_SIZE = 65536;
+    private static final int CHUNK_SIZE = 8192;
+    private static final int MAX_FREE_CHUNKS = 4;
+    private static final int MAX_GATHER = 16; // buffers per gathering write
+    private static final int COPY_LIMIT = 128; // smaller frames are copied instead of referenced
     private final Server server;
+    private final Reactor reactor;
     private final SocketChannel channel;
+    private final AtomicBoolean disconnected;
     private InetSocketAddress remoteAddress;
-    private final ByteBuffer recvBuffer, sendBuffer;
+    private final ByteBuffer recvBuffer;
+    private int recvOffset;
+    private final ReusablePackets reusablePackets;
+    // outgoing data: packets are encoded into sendBuffer, full chunks and shared frames
+    // wait in sendQueue until the channel can take them
+    private final ReentrantLock sendLock;
+    private final ArrayDeque<ByteBuffer> sendQueue, freeChunks;
+    private final ByteBuffer[] gather;
+    private ByteBuffer sendBuffer;
+    private int queuedBytes;
+    private boolean wasEmpty, overflowed;
+    private int encodeStart;
+    private volatile PacketCapture capture;
+    // backpressure: congested above highWater until drained to lowWater, kicked above maxQueued
+    private final int lowWater, highWater, maxQueued;
+    private final CongestionPolicy policy;
+    private volatile boolean congested;
+    private final AtomicInteger droppedPackets;
 
-    public Client(SocketChannel channel, Server server) throws IOException {
+    Client(SocketChannel channel, Server server, Reactor reactor) throws IOException {
         this.channel = channel;
         this.server = server;
+        this.reactor = reactor;
+        this.disconnected = new AtomicBoolean(false);
         SocketAddress sockAddr = channel.getRemoteAddress();
 
         if(sockAddr instanceof InetSocketAddress) {
@@ -52,37 +98,78 @@ public class Client {
 
         this.recvBuffer = ByteBuffer.allocate(BUFFER_SIZE);
         this.recvBuffer.order(ByteOrder.BIG_ENDIAN);
+        // packets can only be reused if they are handled right away instead of being queued
+        this.reusablePackets = server.handlesPacketsInline() ? new ReusablePackets() : null;
 
-        this.sendBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-        this.sendBuffer.order(ByteOrder.BIG_ENDIAN);
+        this.sendLock = new ReentrantLock();
+        this.sendQueue = new ArrayDeque<ByteBuffer>();
+        this.freeChunks = new ArrayDeque<ByteBuffer>();
+        this.gather = new ByteBuffer[MAX_GATHER];
+        this.sendBuffer = takeChunk();
+        this.lowWater = server.getSendLowWater();
+        this.highWater = server.getSendHighWater();
+        this.maxQueued = server.getSendMaxQueued();
+        this.policy = server.getCongestionPolicy();
+        this.droppedPackets = new AtomicInteger();
     }
 
-    public List<SLPacket> processReadData(byte[] data, int len) throws IOException {
-        List<SLPacket> packets = new ArrayList<SLPacket>(5);
-        try {
-            recvBuffer.put(data, 0, len);
-        } catch(BufferOverflowException e) {
-            throw new IOException("buffer overflow when reading packet");
+    // read from the channel directly into recvBuffer, returns -1 if the client closed the connection
+    int readFromChannel() throws IOException {
+        if(!recvBuffer.hasRemaining()) {
+            // only move the unparsed rest to the front when we run out of space
+            recvBuffer.flip();
+            recvBuffer.position(recvOffset);
+            recvBuffer.compact();
+            recvOffset = 0;
+            if(!recvBuffer.hasRemaining()) {
+                throw new IOException("buffer overflow when reading packet");
+            }
         }
+        return channel.read(recvBuffer);
+    }
 
-        SLPacket lastPacket = null;
-        do {
-            recvBuffer.flip();
-            lastPacket = SLPacket.readPacket(recvBuffer);
-            if(lastPacket != null) {
-                // got a full packet, add to queue
-                log.finest(String.format("Got from %s: %02X (%s)", getRemoteAddress(), lastPacket.getID(), lastPacket.getClass().getSimpleName()));
-                packets.add(lastPacket);
-                recvBuffer.compact();
-            } else {
-                // didn't get a full packet, try again next time
-                recvBuffer.position(recvBuffer.limit());
-                recvBuffer.limit(recvBuffer.capacity());
+    // decode the next complete packet in recvBuffer or return null if there is none. The
+    // bytes between recvOffset and the buffer's position haven't been parsed yet.
+    // The packet can be a reused instance, so it has to be handled before calling this again
+    SLPacket nextPacket() throws IOException {
+        int end = recvBuffer.position();
+        if(recvOffset == end) {
+            return null;
+        }
+
+        SLPacket packet;
+        recvBuffer.flip();
+        recvBuffer.position(recvOffset);
+        try {
+            packet = SLPacket.readPacket(recvBuffer, reusablePackets);
+            if(packet != null) {
+                // continue after the packet's length even if the decoder didn't read all of it,
+                // readPacket rejected lengths below the header size already
+                int length = recvBuffer.getShort(recvOffset + 2) & 0xFFFF;
+                PacketCapture cap = capture;
+                if(cap != null) {
+                    cap.record(PacketCapture.INBOUND, recvBuffer.array(), recvOffset, length);
+                }
+                recvOffset += length;
             }
-        } while(lastPacket != null);
+        } finally {
+            recvBuffer.limit(recvBuffer.capacity());
+            recvBuffer.position(end);
+        }
 
-        // no more packets, return received ones
-        return packets;
+        if(packet == null) {
+            // didn't get a full packet, try again next time
+            return null;
+        }
+        if(recvOffset == end) {
+            // everything parsed, start at the front again
+            recvBuffer.clear();
+            recvOffset = 0;
+        }
+        if(log.isLoggable(Level.FINEST)) {
+            log.finest(String.format("Got from %s: %02X (%s)", getRemoteAddress(), packet.getID(), packet.getClass().getSimpleName()));
+        }
+        return packet;
     }
 
     public void disconnect() {
@@ -90,40 +177,272 @@ public class Client {
     }
 
     public void send(SLPacket packet) {
-        log.finest(String.format("Sending to %s: %s (%s)", getRemoteAddress(), packet.getClass().getSimpleName(), packet.toString()));
-        boolean needEnable = false;
-
-        synchronized (sendBuffer) {
-            if(sendBuffer.position() == 0) {
-                // there was nothing to send before, enable select notification for write-ready
-                needEnable = true;
-            }
+        if(beginSend(packet.getLength())) {
+            boolean ok = false;
             try {
                 // append packet to sendBuffer
                 packet.writeTo(sendBuffer);
-            } catch (IOException e) {
+                ok = true;
+            } catch(IOException e) {
+                log.warning("Packet doesn't match its length: " + packet);
+            } finally {
+                endSend(packet.getID());
+            }
+            if(!ok) {
                 server.disconnect(this);
-                needEnable = false;
             }
         }
+    }
+
+    public void send(PacketFrame frame) {
+        int len = frame.getLength();
+        if(len < COPY_LIMIT) {
+            if(beginSend(len)) {
+                try {
+                    sendBuffer.put(frame.getData());
+                } finally {
+                    endSend(frame.getID());
+                }
+            }
+        } else if(beginSend(0)) {
+            try {
+                // keep the order: what was encoded before must go out before the frame
+                enqueue(frame.newView(), len);
+                PacketCapture cap = capture;
+                if(cap != null && !overflowed) {
+                    cap.record(PacketCapture.OUTBOUND, frame.getData(), 0, len);
+                }
+            } finally {
+                endSend(frame.getID());
+            }
+        }
+    }
+
+    // for effects like sounds and animations that can be skipped when the client can't keep up
+    public void sendDroppable(PacketFrame frame) {
+        if(congested && policy.dropWhileCongested(this, frame.getID())) {
+            droppedPackets.incrementAndGet();
+            return;
+        }
+        send(frame);
+    }
+
+    // the following methods encode the most frequent packets straight into the send buffer
+    // so that no packet objects or temporary buffers are needed
+    public void sendObject(SendableObject obj) {
+        if(beginSend(SendObjectPacket.LENGTH)) {
+            try {
+                SendObjectPacket.write(sendBuffer, obj);
+            } finally {
+                endSend(SendObjectPacket.ID);
+            }
+        }
+    }
+
+    public void sendEquip(SendableMobile mob, SendableItem item) {
+        if(beginSend(EquipPacket.LENGTH)) {
+            try {
+                EquipPacket.write(sendBuffer, mob, item);
+            } finally {
+                endSend(EquipPacket.ID);
+            }
+        }
+    }
+
+    public void sendLocation(SendableMobile mob) {
+        if(beginSend(LocationPacket.LENGTH)) {
+            try {
+                LocationPacket.write(sendBuffer, mob);
+            } finally {
+                endSend(LocationPacket.ID);
+            }
+        }
+    }
+
+    public void sendStats(SendableMobile mob, boolean relativeHitsOnly) {
+        if(beginSend(StatsUpdatePacket.LENGTH)) {
+            try {
+                StatsUpdatePacket.write(sendBuffer, mob, relativeHitsOnly);
+            } finally {
+                endSend(StatsUpdatePacket.ID);
+            }
+        }
+    }
+
+    public void sendText(SendableObject src, short mode, long color, String text) {
+        if(beginSend(SendTextPacket.getLength(text))) {
+            try {
+                SendTextPacket.write(sendBuffer, src, mode, color, text);
+            } finally {
+                endSend(SendTextPacket.ID);
+            }
+        }
+    }
+
+    // locks the send queue and makes room for len bytes in sendBuffer. If it returns true,
+    // the caller has to write exactly len bytes and then call endSend
+    private boolean beginSend(int len) {
+        if(disconnected.get()) {
+            return false;
+        }
+        sendLock.lock();
+        wasEmpty = (queuedBytes == 0);
+        if(queuedBytes + len > maxQueued) {
+            sendLock.unlock();
+            log.info(String.format("%s has %d unsent bytes, disconnecting", getRemoteAddress(), queuedBytes));
+            server.disconnect(this);
+            return false;
+        }
+        if(sendBuffer.remaining() < len) {
+            sealChunk();
+            if(len > CHUNK_SIZE) {
+                // too large for a chunk, give it its own buffer
+                recycle(sendBuffer);
+                sendBuffer = ByteBuffer.allocate(len);
+            }
+        }
+        queuedBytes += len;
+        encodeStart = sendBuffer.position();
+        return true;
+    }
+
+    // append a buffer to the send queue, must be called between beginSend(0) and endSend
+    private void enqueue(ByteBuffer buf, int len) {
+        if(queuedBytes + len > maxQueued) {
+            overflowed = true;
+            return;
+        }
+        sealChunk();
+        sendQueue.add(buf);
+        queuedBytes += len;
+    }
+
+    private void endSend(short id) {
+        PacketCapture cap = capture;
+        if(cap != null && sendBuffer.position() > encodeStart) {
+            cap.record(PacketCapture.OUTBOUND, sendBuffer.array(), encodeStart, sendBuffer.position() - encodeStart);
+        }
+        boolean needEnable = wasEmpty && queuedBytes > 0;
+        boolean nowCongested = false, overflow = overflowed;
+        if(!congested && queuedBytes > highWater) {
+            congested = true;
+            nowCongested = true;
+        }
+        overflowed = false;
+        sendLock.unlock();
+
+        if(log.isLoggable(Level.FINEST)) {
+            log.finest(String.format("Sending to %s: %02X", getRemoteAddress(), id));
+        }
+        if(overflow) {
+            log.info(String.format("%s has too many unsent bytes, disconnecting", getRemoteAddress()));
+            server.disconnect(this);
+            return;
+        }
         if(needEnable) {
-            server.writeRequest(this);
+            // there was nothing to send before, enable select notification for write-ready
+            reactor.writeRequest(this);
+        }
+        if(nowCongested) {
+            policy.onCongested(this);
         }
     }
 
-    public void writeNow() throws IOException {
-        boolean needDisable = false;
-        synchronized(sendBuffer) {
+    // move the current chunk to the send queue and start a new one, must hold sendLock
+    private void sealChunk() {
+        if(sendBuffer.position() > 0) {
             sendBuffer.flip();
-            channel.write(sendBuffer);
-            sendBuffer.compact();
-            if(sendBuffer.position() == 0) {
-                // buffer empty again -> disable write notification
+            sendQueue.add(sendBuffer);
+            sendBuffer = takeChunk();
+        }
+    }
+
+    private ByteBuffer takeChunk() {
+        ByteBuffer chunk = freeChunks.poll();
+        if(chunk == null) {
+            chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            chunk.order(ByteOrder.BIG_ENDIAN);
+        }
+        return chunk;
+    }
+
+    private void recycle(ByteBuffer buf) {
+        // frame views are read-only and oversized buffers are one-shot
+        if(!buf.isReadOnly() && buf.capacity() == CHUNK_SIZE && freeChunks.size() < MAX_FREE_CHUNKS) {
+            buf.clear();
+            freeChunks.push(buf);
+        }
+    }
+
+    public void writeNow() throws IOException {
+        boolean needDisable = false, recovered = false;
+        sendLock.lock();
+        try {
+            sealChunk();
+            int count = 0;
+            for(ByteBuffer buf : sendQueue) {
+                gather[count++] = buf;
+                if(count == gather.length) {
+                    break;
+                }
+            }
+            if(count > 0) {
+                queuedBytes -= channel.write(gather, 0, count);
+                Arrays.fill(gather, 0, count, null);
+            }
+            while(!sendQueue.isEmpty() && !sendQueue.peek().hasRemaining()) {
+                recycle(sendQueue.poll());
+            }
+            if(queuedBytes == 0) {
+                // queue empty again -> disable write notification
                 needDisable = true;
             }
+            if(congested && queuedBytes <= lowWater) {
+                congested = false;
+                recovered = true;
+            }
+        } finally {
+            sendLock.unlock();
         }
         if(needDisable) {
-            server.stopWriteRequest(this);
+            reactor.stopWriteRequest(this);
+        }
+        if(recovered) {
+            policy.onRecovered(this, droppedPackets.getAndSet(0));
+        }
+    }
+
+    // record all packets from and to this client into a file, see CaptureTool
+    public void startCapture(File file) throws IOException {
+        stopCapture();
+        capture = new PacketCapture(file, getRemoteAddress());
+        log.info("Capturing packets of " + getRemoteAddress() + " to " + file);
+    }
+
+    public void stopCapture() {
+        PacketCapture cap = capture;
+        capture = null;
+        if(cap != null) {
+            cap.close();
+        }
+    }
+
+    public boolean isCapturing() {
+        return capture != null;
+    }
+
+    // true while the client has more unsent data than the high watermark and
+    // not yet caught up to the low watermark
+    public boolean isCongested() {
+        return congested;
+    }
+
+    public int getQueuedBytes() {
+        sendLock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            sendLock.unlock();
         }
     }
 
@@ -134,4 +453,13 @@ public class Client {
     SocketChannel getChannel() {
         return channel;
     }
+
+    Reactor getReactor() {
+        return reactor;
+    }
+
+    // returns false if the client was already marked as disconnected
+    boolean markDisconnected() {
+        return disconnected.compareAndSet(false, true);
+    }
 }
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.jphex.network;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+// binary recording of the packets of one client. Format (big endian):
+//   header: int MAGIC, short VERSION, long start time in ms since epoch, string remote address
+//   record: long ns since start, byte direction, ushort length, raw packet including header
+// CaptureTool can print and replay captures
+public class PacketCapture {
+    public static final int MAGIC = 0x4A504358; // "JPCX"
+    public static final short VERSION = 1;
+    public static final byte INBOUND = 0;
+    public static final byte OUTBOUND = 1;
+    private static final Logger log = Logger.getLogger("jphex.capture");
+    private final File file;
+    private final DataOutputStream out;
+    private final long startNanos;
+    private boolean closed;
+
+    public PacketCapture(File file, String remoteAddress) throws IOException {
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        this.startNanos = System.nanoTime();
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.writeUTF(remoteAddress);
+    }
+
+    public synchronized void record(byte direction, byte[] data, int offset, int length) {
+        if(closed) {
+            return;
+        }
+        try {
+            out.writeLong(System.nanoTime() - startNanos);
+            out.writeByte(direction);
+            out.writeShort(length);
+            out.write(data, offset, length);
+        } catch(IOException e) {
+            log.warning("Stopping capture to " + file + ": " + e.getMessage());
+            close();
+        }
+    }
+
+    public synchronized void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            out.close();
+        } catch(IOException e) {
+            log.warning("Couldn't close capture " + file + ": " + e.getMessage());
+        }
+    }
+}
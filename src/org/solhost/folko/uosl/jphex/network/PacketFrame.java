@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ * 
+ * This file is part of JPhex.
+ * 
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.jphex.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.solhost.folko.uosl.libuosl.network.packets.SLPacket;
+
+// a packet that is encoded once and then sent to many clients: the bytes are never modified
+// again so all clients can share them, each send queue only gets its own read position
+public final class PacketFrame {
+    private final byte[] data;
+    private final ByteBuffer shared;
+
+    public PacketFrame(SLPacket packet) {
+        this.data = new byte[packet.getLength()];
+        try {
+            packet.writeTo(ByteBuffer.wrap(data));
+        } catch(IOException e) {
+            throw new IllegalArgumentException("packet doesn't match its length: " + packet, e);
+        }
+        this.shared = ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    public short getID() {
+        return (short) (data[1] & 0xFF);
+    }
+
+    public int getLength() {
+        return data.length;
+    }
+
+    // must not be modified
+    byte[] getData() {
+        return data;
+    }
+
+    // a read-only view with its own position
+    ByteBuffer newView() {
+        return shared.duplicate();
+    }
+}
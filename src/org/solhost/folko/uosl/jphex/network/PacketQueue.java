@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.jphex.network;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.solhost.folko.uosl.libuosl.network.packets.SLPacket;
+
+// hands network events from the I/O threads over to the game logic. The I/O threads
+// only enqueue, the game logic runs the real handler from a single thread so that
+// a slow world call doesn't block reading from the sockets. The queue is lock-free,
+// a thread in processLoop is parked while there is nothing to do
+public class PacketQueue implements IPacketHandler {
+    private static final Logger log = Logger.getLogger("jphex.server");
+    private final IPacketHandler handler;
+    private final Queue<Event> events;
+    private volatile Thread waiter;
+
+    private enum EventType { CONNECT, DISCONNECT, PACKET }
+
+    private class Event {
+        final EventType type;
+        final Client client;
+        final SLPacket packet;
+
+        Event(EventType type, Client client, SLPacket packet) {
+            this.type = type;
+            this.client = client;
+            this.packet = packet;
+        }
+    }
+
+    public PacketQueue(IPacketHandler handler) {
+        this.handler = handler;
+        this.events = new ConcurrentLinkedQueue<Event>();
+    }
+
+    private void add(Event event) {
+        events.add(event);
+        Thread toWake = waiter;
+        if(toWake != null) {
+            LockSupport.unpark(toWake);
+        }
+    }
+
+    @Override
+    public void onNewConnection(Client client) {
+        add(new Event(EventType.CONNECT, client, null));
+    }
+
+    @Override
+    public void onDisconnect(Client client) {
+        add(new Event(EventType.DISCONNECT, client, null));
+    }
+
+    @Override
+    public void onIncomingPacket(Client client, SLPacket packet) {
+        add(new Event(EventType.PACKET, client, packet));
+    }
+
+    private void dispatch(Event event) {
+        try {
+            switch(event.type) {
+            case CONNECT:       handler.onNewConnection(event.client); break;
+            case DISCONNECT:    handler.onDisconnect(event.client); break;
+            case PACKET:        handler.onIncomingPacket(event.client, event.packet); break;
+            }
+        } catch(Exception e) {
+            log.log(Level.SEVERE, "Exception when handling incoming packet: " + e.getMessage(), e);
+        }
+    }
+
+    // handle all events that are currently queued, returns the number of handled events
+    public int drain() {
+        int count = 0;
+        Event event;
+        while((event = events.poll()) != null) {
+            dispatch(event);
+            count++;
+        }
+        return count;
+    }
+
+    // handle events as they come in until the thread is interrupted
+    public void processLoop() {
+        waiter = Thread.currentThread();
+        while(!Thread.interrupted()) {
+            Event event = events.poll();
+            if(event != null) {
+                dispatch(event);
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        waiter = null;
+    }
+}
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.jphex.network;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.solhost.folko.uosl.jphex.network.Server.ErrorHandler;
+import org.solhost.folko.uosl.libuosl.network.packets.SLPacket;
+
+// a selector loop that does the I/O for a subset of the clients. It also accepts
+// connections if the server socket is registered with it
+class Reactor {
+    private static final Logger log = Logger.getLogger("jphex.server");
+    private final Server server;
+    private final IPacketHandler handler;
+    private final Selector selector;
+    private final Map<SocketChannel, Client> clients;
+    private final Queue<Client> newClients;
+    private final Set<Client> writeRequestsOn, writeRequestsOff;
+    private final Object selectLock;
+    private volatile boolean batchedFlush;
+    private boolean flushNeeded;
+
+    public Reactor(Server server, IPacketHandler handler) throws IOException {
+        this.server = server;
+        this.handler = handler;
+        this.selector = SelectorProvider.provider().openSelector();
+        this.clients = new ConcurrentHashMap<SocketChannel, Client>();
+        this.newClients = new ConcurrentLinkedQueue<Client>();
+        this.writeRequestsOn = new HashSet<Client>();
+        this.writeRequestsOff = new HashSet<Client>();
+        this.selectLock = new Object();
+    }
+
+    public void registerAcceptor(ServerSocketChannel serverSocket) throws ClosedChannelException {
+        serverSocket.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    // hand a new client to this reactor, can be called from any thread
+    public void addClient(Client client) {
+        newClients.add(client);
+        selector.wakeup();
+    }
+
+    public void removeClient(Client client) {
+        clients.remove(client.getChannel());
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public void eventLoop(ErrorHandler errorHandler) {
+        while(!Thread.interrupted()) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                log.log(Level.SEVERE, "Couldn't select() on server socket: " + e.getMessage(), e);
+                errorHandler.onError("select failed");
+                break;
+            }
+
+            for(SelectionKey key : selector.selectedKeys()) {
+                // keys can become invalid at any time, so always check validity before checking something else
+                if(key.isValid() && key.isAcceptable()) {
+                    // pending connection
+                    server.onAcceptable((ServerSocketChannel) key.channel());
+                }
+
+                if(key.isValid() && key.isReadable()) {
+                    // pending bytes to be read
+                    boolean success = onReadable((SocketChannel) key.channel());
+                    if(!success) {
+                        key.cancel();
+                        try {
+                            key.channel().close();
+                        } catch (IOException e) {
+                            // doesn't matter because we were closing it anyways
+                        }
+                        continue;
+                    }
+                }
+
+                if(key.isValid() && key.isWritable()) {
+                    // ready to write pending data
+                    boolean success = onWritable((SocketChannel) key.channel());
+                    if(!success) {
+                        key.cancel();
+                        try {
+                            key.channel().close();
+                        } catch (IOException e) {
+                            // doesn't matter because we were closing it anyways
+                        }
+                        continue;
+                    }
+                }
+            }
+
+            selector.selectedKeys().clear();
+
+            Client newClient;
+            while((newClient = newClients.poll()) != null) {
+                try {
+                    newClient.getChannel().register(selector, SelectionKey.OP_READ);
+                    clients.put(newClient.getChannel(), newClient);
+                } catch(ClosedChannelException e) {
+                    // disconnected before we got it
+                }
+            }
+
+            synchronized(selectLock) {
+                for(Client client : writeRequestsOff) {
+                    if(writeRequestsOn.contains(client)) {
+                        // this fixes an ugly race condition
+                        continue;
+                    }
+
+                    SelectionKey key = client.getChannel().keyFor(selector);
+                    if(key == null || !key.isValid()) continue;
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                writeRequestsOff.clear();
+
+                for(Client client : writeRequestsOn) {
+                    SelectionKey key = client.getChannel().keyFor(selector);
+                    if(key == null || !key.isValid()) continue;
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+                writeRequestsOn.clear();
+            }
+        }
+    }
+
+    public void wakeup() {
+        selector.wakeup();
+    }
+
+    // in batched mode, write requests are only collected and flush() wakes up the selector
+    public void setBatchedFlush(boolean batched) {
+        this.batchedFlush = batched;
+    }
+
+    // client should call this when it wants to write
+    public void writeRequest(Client client) {
+        synchronized(selectLock) {
+            writeRequestsOn.add(client);
+            if(batchedFlush) {
+                flushNeeded = true;
+            } else {
+                selector.wakeup();
+            }
+        }
+    }
+
+    // register the write requests collected since the last flush
+    public void flush() {
+        synchronized(selectLock) {
+            if(flushNeeded) {
+                flushNeeded = false;
+                selector.wakeup();
+            }
+        }
+    }
+
+    // disable client write ready notification, only called from our own loop
+    // so the requests are applied at the end of the current iteration anyways
+    public void stopWriteRequest(Client client) {
+        synchronized(selectLock) {
+            writeRequestsOff.add(client);
+        }
+    }
+
+    private boolean onReadable(SocketChannel channel) {
+        Client client = clients.get(channel);
+        if(client == null) {
+            return false;
+        }
+
+        try {
+            int bytesRead = client.readFromChannel();
+            if(bytesRead == -1) {
+                // normal shutdown of the client
+                server.disconnect(client);
+                return false;
+            }
+
+            // hand each packet to the handler before decoding the next one
+            SLPacket packet;
+            while((packet = client.nextPacket()) != null) {
+                try {
+                    handler.onIncomingPacket(client, packet);
+                } catch(Exception e) {
+                    log.log(Level.SEVERE, "Exception when handling incoming packet: " + e.getMessage(), e);
+                }
+            }
+        } catch (IOException e) {
+            log.warning("Read error from client " + client.getRemoteAddress() + ": " + e.getMessage());
+            server.disconnect(client);
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean onWritable(SocketChannel channel) {
+        Client client = clients.get(channel);
+        if(client == null) {
+            return false;
+        }
+
+        try {
+            client.writeNow();
+        } catch(IOException e) {
+            log.warning("Write error from client " + client.getRemoteAddress() + ": " + e.getMessage());
+            server.disconnect(client);
+            return false;
+        }
+
+        return true;
+    }
+}
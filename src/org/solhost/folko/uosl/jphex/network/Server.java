@@ -18,128 +18,190 @@
  ******************************************************************************/
 package org.solhost.folko.uosl.jphex.network;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.channels.spi.SelectorProvider;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.solhost.folko.uosl.libuosl.network.packets.SLPacket;
-
+// without reactors, a single thread accepts, does all I/O and calls the handler.
+// With reactors, the event loop thread only accepts and each reactor thread does
+// the I/O for its share of the clients. The handler is then called by a single
+// game logic thread through a PacketQueue so that I/O doesn't wait for the world.
+// If the given handler is a PacketQueue already, its creator has to drain it
 public class Server {
     public interface ErrorHandler {
         public void onError(String message);
     }
 
     private static final Logger log = Logger.getLogger("jphex.server");
+    // default limits for unsent bytes per client
+    public static final int DEFAULT_LOW_WATER = 64 * 1024;
+    public static final int DEFAULT_HIGH_WATER = 256 * 1024;
+    public static final int DEFAULT_MAX_QUEUED = 1024 * 1024;
     private final IPacketHandler handler;
+    private final PacketQueue packetQueue;
     private ServerSocketChannel serverSocket;
-    private Selector selector;
-    private final Map<SocketChannel, Client> clients;
-    private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
     private final int port;
-    private final Set<Client> writeRequestsOn, writeRequestsOff;
-    private final Object selectLock;
+    private Reactor acceptor;
+    private final Reactor[] reactors;
+    private int nextReactor;
+    private int sendLowWater, sendHighWater, sendMaxQueued;
+    private Client.CongestionPolicy congestionPolicy;
+    private boolean batchedFlush;
+    private File captureDirectory;
 
     public Server(int port, IPacketHandler handler) {
-        this.handler = handler;
+        this(port, handler, 0);
+    }
+
+    public Server(int port, IPacketHandler handler, int reactorCount) {
         this.port = port;
-        this.clients = new HashMap<SocketChannel, Client>();
-        this.writeRequestsOn = new HashSet<Client>();
-        this.writeRequestsOff = new HashSet<Client>();
-        this.selectLock = new Object();
+        this.reactors = new Reactor[reactorCount];
+        if(reactorCount > 0 && !(handler instanceof PacketQueue)) {
+            this.packetQueue = new PacketQueue(handler);
+            this.handler = packetQueue;
+        } else {
+            this.packetQueue = null;
+            this.handler = handler;
+        }
+        this.sendLowWater = DEFAULT_LOW_WATER;
+        this.sendHighWater = DEFAULT_HIGH_WATER;
+        this.sendMaxQueued = DEFAULT_MAX_QUEUED;
+        this.congestionPolicy = new Client.CongestionPolicy() {
+            @Override
+            public void onCongested(Client client) {
+                log.fine(client.getRemoteAddress() + " can't keep up, dropping effects");
+            }
+
+            @Override
+            public void onRecovered(Client client, int droppedPackets) {
+                log.fine(client.getRemoteAddress() + " caught up, dropped " + droppedPackets + " packets");
+            }
+
+            @Override
+            public boolean dropWhileCongested(Client client, short packetID) {
+                return true;
+            }
+        };
+    }
+
+    // only affects clients that connect afterwards
+    public void setSendLimits(int lowWater, int highWater, int maxQueued) {
+        if(lowWater > highWater || highWater > maxQueued) {
+            throw new IllegalArgumentException("need lowWater <= highWater <= maxQueued");
+        }
+        this.sendLowWater = lowWater;
+        this.sendHighWater = highWater;
+        this.sendMaxQueued = maxQueued;
+    }
+
+    // collect the packets of all clients and only start writing them when flush is called,
+    // for callers that produce all their packets in steps like the game loop
+    public void setBatchedFlush(boolean batched) {
+        this.batchedFlush = batched;
+    }
+
+    // start writing everything that was sent since the last flush, only needed in batched mode
+    public void flush() {
+        acceptor.flush();
+        for(Reactor reactor : reactors) {
+            reactor.flush();
+        }
+    }
+
+    // capture the packets of all clients that connect afterwards into this directory, null to disable
+    public void setCaptureDirectory(File directory) {
+        this.captureDirectory = directory;
+    }
+
+    public void setCongestionPolicy(Client.CongestionPolicy policy) {
+        this.congestionPolicy = policy;
+    }
+
+    // whether packets are handled right on the reactor thread instead of being queued
+    boolean handlesPacketsInline() {
+        return !(handler instanceof PacketQueue);
+    }
+
+    int getSendLowWater() {
+        return sendLowWater;
+    }
+
+    int getSendHighWater() {
+        return sendHighWater;
+    }
+
+    int getSendMaxQueued() {
+        return sendMaxQueued;
+    }
+
+    Client.CongestionPolicy getCongestionPolicy() {
+        return congestionPolicy;
     }
 
     public void listen() throws IOException {
-        selector = SelectorProvider.provider().openSelector();
+        acceptor = new Reactor(this, handler);
+        acceptor.setBatchedFlush(batchedFlush);
+        for(int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(this, handler);
+            reactors[i].setBatchedFlush(batchedFlush);
+        }
         serverSocket = ServerSocketChannel.open();
         serverSocket.configureBlocking(false);
         serverSocket.bind(new InetSocketAddress(port));
-        serverSocket.register(selector, SelectionKey.OP_ACCEPT);
+        acceptor.registerAcceptor(serverSocket);
     }
 
-    public void eventLoop(ErrorHandler errorHandler) {
-        while(!Thread.interrupted()) {
-            try {
-                selector.select();
-            } catch (IOException e) {
-                log.log(Level.SEVERE, "Couldn't select() on server socket: " + e.getMessage(), e);
-                errorHandler.onError("select failed");
-                break;
-            }
-
-            for(SelectionKey key : selector.selectedKeys()) {
-                // keys can become invalid at any time, so always check validity before checking something else
-                if(key.isValid() && key.isAcceptable()) {
-                    // pending connection
-                    onAcceptable((ServerSocketChannel) key.channel());
-                }
+    public void eventLoop(final ErrorHandler errorHandler) {
+        if(reactors.length == 0) {
+            acceptor.eventLoop(errorHandler);
+            return;
+        }
 
-                if(key.isValid() && key.isReadable()) {
-                    // pending bytes to be read
-                    boolean success = onReadable((SocketChannel) key.channel());
-                    if(!success) {
-                        key.cancel();
-                        try {
-                            key.channel().close();
-                        } catch (IOException e) {
-                            // doesn't matter because we were closing it anyways
-                        }
-                        continue;
-                    }
+        log.info("Using " + reactors.length + " network threads");
+        Thread[] threads = new Thread[packetQueue != null ? reactors.length + 1 : reactors.length];
+        for(int i = 0; i < reactors.length; i++) {
+            final Reactor reactor = reactors[i];
+            threads[i] = new Thread("reactor-" + i) {
+                @Override
+                public void run() {
+                    reactor.eventLoop(errorHandler);
                 }
-
-                if(key.isValid() && key.isWritable()) {
-                    // ready to write pending data
-                    boolean success = onWritable((SocketChannel) key.channel());
-                    if(!success) {
-                        key.cancel();
-                        try {
-                            key.channel().close();
-                        } catch (IOException e) {
-                            // doesn't matter because we were closing it anyways
-                        }
-                        continue;
-                    }
+            };
+        }
+        if(packetQueue != null) {
+            threads[reactors.length] = new Thread("game logic") {
+                @Override
+                public void run() {
+                    packetQueue.processLoop();
                 }
-            }
-
-            selector.selectedKeys().clear();
-
-            synchronized(selectLock) {
-                for(Client client : writeRequestsOff) {
-                    if(writeRequestsOn.contains(client)) {
-                        // this fixes an ugly race condition
-                        continue;
-                    }
+            };
+        }
+        for(Thread thread : threads) {
+            thread.start();
+        }
 
-                    SelectionKey key = client.getChannel().keyFor(selector);
-                    if(key == null || !key.isValid()) continue;
-                    key.interestOps(SelectionKey.OP_READ);
-                }
-                writeRequestsOff.clear();
+        acceptor.eventLoop(errorHandler);
 
-                for(Client client : writeRequestsOn) {
-                    SelectionKey key = client.getChannel().keyFor(selector);
-                    if(key == null || !key.isValid()) continue;
-                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-                }
-                writeRequestsOn.clear();
+        for(Thread thread : threads) {
+            thread.interrupt();
+        }
+        for(Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                // don't care as we were stopping them anyways
             }
         }
     }
 
     public void disconnect(Client client) {
+        if(!client.markDisconnected()) {
+            // already disconnected
+            return;
+        }
         SocketChannel channel = client.getChannel();
         if(channel != null) {
             try {
@@ -148,95 +210,40 @@ public class Server {
                 // doesn't matter as we're disconnecting them anyways
             }
         }
-        clients.remove(client);
+        client.getReactor().removeClient(client);
+        client.stopCapture();
         handler.onDisconnect(client);
     }
 
-    // client should call this when it wants to write
-    public void writeRequest(Client client) {
-        synchronized(selectLock) {
-            writeRequestsOn.add(client);
-            selector.wakeup();
-        }
-    }
-
-    // disable client write ready notification
-    public void stopWriteRequest(Client client) {
-        synchronized(selectLock) {
-            writeRequestsOff.add(client);
-            selector.wakeup();
-        }
-    }
-
-    private void onAcceptable(ServerSocketChannel channel) {
+    void onAcceptable(ServerSocketChannel channel) {
         SocketChannel clientChannel;
         Client client;
+        Reactor reactor = acceptor;
+        if(reactors.length > 0) {
+            reactor = reactors[nextReactor];
+            nextReactor = (nextReactor + 1) % reactors.length;
+        }
         try {
             clientChannel = channel.accept();
             if(clientChannel == null) {
                 return;
             }
             clientChannel.configureBlocking(false);
-            clientChannel.register(selector, SelectionKey.OP_READ);
-            client = new Client(clientChannel, this);
+            client = new Client(clientChannel, this, reactor);
         } catch (IOException e) {
             log.warning("Error accepting client: '" + e.getMessage() + "', ignoring");
             return;
         }
-        clients.put(clientChannel, client);
-        handler.onNewConnection(client);
-    }
-
-    private boolean onReadable(SocketChannel channel) {
-        Client client = clients.get(channel);
-        if(client == null) {
-            return false;
-        }
-
-        readBuffer.clear();
-        List<SLPacket> packets;
-
-        try {
-            int bytesRead = channel.read(readBuffer);
-            if(bytesRead == -1) {
-                // normal shutdown of the client
-                disconnect(client);
-                return false;
-            }
-
-            packets = client.processReadData(readBuffer.array(), bytesRead);
-        } catch (IOException e) {
-            log.warning("Read error from client " + client.getRemoteAddress() + ": " + e.getMessage());
-            disconnect(client);
-            return false;
-        }
-
-        // add all received packets to handler
-        for(SLPacket packet : packets) {
+        if(captureDirectory != null) {
+            File file = new File(captureDirectory, String.format("%d-%s.cap", System.currentTimeMillis(),
+                    client.getRemoteAddress().replaceAll("[^0-9A-Za-z.]", "_")));
             try {
-                handler.onIncomingPacket(client, packet);
-            } catch(Exception e) {
-                log.log(Level.SEVERE, "Exception when handling incoming packet: " + e.getMessage(), e);
+                client.startCapture(file);
+            } catch(IOException e) {
+                log.warning("Couldn't start capture: " + e.getMessage());
             }
         }
-
-        return true;
-    }
-
-    private boolean onWritable(SocketChannel channel) {
-        Client client = clients.get(channel);
-        if(client == null) {
-            return false;
-        }
-
-        try {
-            client.writeNow();
-        } catch(IOException e) {
-            log.warning("Write error from client " + client.getRemoteAddress() + ": " + e.getMessage());
-            disconnect(client);
-            return false;
-        }
-
-        return true;
+        handler.onNewConnection(client);
+        reactor.addClient(client);
     }
 }
@@ -22,6 +22,7 @@ import java.util.Collection;
 
 import org.jruby.RubyProc;
 import org.jruby.runtime.builtin.IRubyObject;
+import org.solhost.folko.uosl.jphex.engines.Timer;
 import org.solhost.folko.uosl.jphex.types.Item;
 import org.solhost.folko.uosl.jphex.types.Mobile;
 import org.solhost.folko.uosl.jphex.types.NPC;
@@ -62,7 +63,10 @@ public interface ScriptAPI {
     public void saveWorld();
 
     public long getTimerTicks();
-    public void addTimer(long delayUntilRunInMillis, RubyProc block);
+    public Timer addTimer(long delayUntilRunInMillis, RubyProc block);
+    public Timer addTimer(long delayUntilRunInMillis, Object owner, RubyProc block);
+    public void cancelTimer(Timer timer);
+    public boolean dealDamage(Mobile mob, int damage, Mobile source);
 
     public Item createItemInBackpack(Mobile mob, int graphic);
     public Item createItemAtMobile(Mobile mob, int graphic);
@@ -93,6 +97,7 @@ public interface ScriptAPI {
     public void lookAt(Mobile who, SLObject what);
     public boolean runToward(Mobile who, Mobile to);
     public boolean runAway(Mobile who, Mobile from);
+    public boolean travelToward(Mobile who, Point3D where);
     public void attack(Mobile attacker, Mobile defender);
     public Mobile getNearestMobile(Mobile from);
 
@@ -30,6 +30,7 @@ import org.jruby.runtime.builtin.IRubyObject;
 import org.solhost.folko.uosl.common.RandUtil;
 import org.solhost.folko.uosl.jphex.engines.Timer;
 import org.solhost.folko.uosl.jphex.engines.TimerQueue;
+import org.solhost.folko.uosl.jphex.network.PacketFrame;
 import org.solhost.folko.uosl.jphex.types.*;
 import org.solhost.folko.uosl.jphex.world.ObjectRegistry;
 import org.solhost.folko.uosl.jphex.world.World;
@@ -43,12 +44,18 @@ import org.solhost.folko.uosl.libuosl.types.Mobiles;
 import org.solhost.folko.uosl.libuosl.types.Point2D;
 import org.solhost.folko.uosl.libuosl.types.Point3D;
 import org.solhost.folko.uosl.libuosl.types.Spell;
+import org.solhost.folko.uosl.libuosl.util.CachedPath;
+import org.solhost.folko.uosl.libuosl.util.ClusterPathfinder;
 import org.solhost.folko.uosl.libuosl.util.Pathfinder;
+import org.solhost.folko.uosl.libuosl.util.TravelPath;
 
 public class ScriptAPIImpl implements ScriptAPI {
     private static final Logger log = Logger.getLogger("jphex.scriptapi");
+    private static final long TRAVEL_RETRY_DELAY = 2000;      // after the first failed search
+    private static final long TRAVEL_MAX_RETRY_DELAY = 60000; // doubles up to this
     private final World world;
     private final ObjectRegistry registry;
+    private ClusterPathfinder clusterPathfinder;
 
     public ScriptAPIImpl(World world) {
         this.world = world;
@@ -64,7 +71,7 @@ public class ScriptAPIImpl implements ScriptAPI {
 
     @Override
     public void moveObject(SLObject obj, int x, int y) {
-        byte z = SLData.get().getMap().getElevation(new Point2D(x, y));
+        byte z = SLData.get().getMap().getElevation(x, y);
         moveObject(obj, x, y, z);
     }
 
@@ -294,8 +301,14 @@ public class ScriptAPIImpl implements ScriptAPI {
     }
 
     @Override
-    public void addTimer(long millis, final RubyProc block) {
-        TimerQueue.get().addTimer(new Timer(millis, new Runnable() {
+    public Timer addTimer(long millis, final RubyProc block) {
+        return addTimer(millis, null, block);
+    }
+
+    @Override
+    public Timer addTimer(long millis, Object owner, final RubyProc block) {
+        // timers of the same owner never run in parallel
+        return TimerQueue.get().addTimer(new Timer(millis, owner, new Runnable() {
             public void run() {
                 IRubyObject args[] = {};
                 block.call(ScriptManager.instance().getContext(), args);
@@ -303,6 +316,13 @@ public class ScriptAPIImpl implements ScriptAPI {
         }));
     }
 
+    @Override
+    public void cancelTimer(Timer timer) {
+        if(timer != null) {
+            timer.cancel();
+        }
+    }
+
     @Override
     public NPC spawnMobileAtPlayer(Player near, String behavior) {
         MobileBehavior be = ScriptManager.instance().getMobileBehaviour(behavior);
@@ -436,25 +456,107 @@ public class ScriptAPIImpl implements ScriptAPI {
             // too far away
             return false;
         } else {
-            // try running next step
-            Pathfinder finder = new Pathfinder(who.getLocation(), to.getLocation(), world);
-            if(!finder.findPath(500)) {
-                // couldn't find a path
-                return false;
+            // try running next step, reusing the path of the last step if it still leads to the target
+            CachedPath path = who.getChasePath();
+            if(path == null || !path.canContinue(who.getLocation(), to.getLocation())) {
+                path = findChasePath(who, to);
+                if(path == null) {
+                    // couldn't find a path
+                    return false;
+                }
             }
-            Direction dir = finder.getPath().get(0);
+            Direction dir = path.getNextDirection();
             who.setFacing(dir);
             Point3D newLoc = world.canWalk(who, dir);
             if(newLoc == null) {
-                log.severe("Pathfinder returned illegal path");
-                return false;
+                // something blocks the path since it was found
+                path = findChasePath(who, to);
+                if(path == null) {
+                    return false;
+                }
+                dir = path.getNextDirection();
+                who.setFacing(dir);
+                newLoc = world.canWalk(who, dir);
+                if(newLoc == null) {
+                    log.severe("Pathfinder returned illegal path");
+                    who.setChasePath(null);
+                    return false;
+                }
             }
+            path.advance(newLoc);
             who.setLocation(newLoc);
             // found a path and walked toward
             return true;
         }
     }
 
+    private CachedPath findChasePath(Mobile who, Mobile to) {
+        Pathfinder finder = new Pathfinder(who.getLocation(), to.getLocation(), world);
+        if(!finder.findPath(500)) {
+            who.setChasePath(null);
+            return null;
+        }
+        CachedPath path = new CachedPath(finder);
+        who.setChasePath(path);
+        return path;
+    }
+
+    @Override
+    public boolean travelToward(Mobile who, Point3D where) {
+        if(who.getLocation().distanceTo(where) == 0) {
+            // already there
+            return true;
+        }
+        TravelPath path = who.getTravelPath();
+        if(path == null || !path.getDest().equals(where)) {
+            if(where.equals(who.getTravelFailedDest()) && Timer.getCurrentTicks() < who.getTravelRetryAt()) {
+                // searched in vain recently, don't search the whole area again for each step
+                return false;
+            }
+            List<Point3D> waypoints = getClusterPathfinder().findWaypoints(who.getLocation(), where);
+            if(waypoints == null) {
+                // no known way
+                who.setTravelPath(null);
+                onTravelFailed(who, where);
+                return false;
+            }
+            path = new TravelPath(waypoints);
+            who.setTravelPath(path);
+        }
+        Direction dir = path.getNextDirection(who.getLocation(), world);
+        if(dir == null) {
+            who.setTravelPath(null);
+            onTravelFailed(who, where);
+            return false;
+        }
+        who.setTravelFailure(null, 0, 0);
+        who.setFacing(dir);
+        Point3D newLoc = world.canWalk(who, dir);
+        if(newLoc == null) {
+            // blocked by something that moved there, try again next time
+            path.resetSegment();
+            return false;
+        }
+        path.advance(newLoc);
+        who.setLocation(newLoc);
+        return true;
+    }
+
+    // back off exponentially while the same destination keeps failing
+    private void onTravelFailed(Mobile who, Point3D where) {
+        int failures = where.equals(who.getTravelFailedDest()) ? who.getTravelFailures() + 1 : 1;
+        long delay = Math.min(TRAVEL_MAX_RETRY_DELAY, TRAVEL_RETRY_DELAY << Math.min(failures - 1, 5));
+        who.setTravelFailure(where, failures, Timer.getCurrentTicks() + delay);
+    }
+
+    private synchronized ClusterPathfinder getClusterPathfinder() {
+        if(clusterPathfinder == null) {
+            // only statics so that the graph stays valid, items are handled when walking
+            clusterPathfinder = new ClusterPathfinder(SLData.get().getStatics());
+        }
+        return clusterPathfinder;
+    }
+
     @Override
     public boolean runAway(Mobile who, Mobile from) {
         int distance = who.distanceTo(from);
@@ -507,6 +609,11 @@ public class ScriptAPIImpl implements ScriptAPI {
         return Timer.getCurrentTicks();
     }
 
+    @Override
+    public boolean dealDamage(Mobile mob, int damage, Mobile source) {
+        return world.dealDamage(mob, damage, source);
+    }
+
     @Override
     public Collection<SLStatic> getStaticsAtLocation(int x, int y) {
         return SLData.get().getStatics().getStatics(new Point2D(x, y));
@@ -515,9 +622,9 @@ public class ScriptAPIImpl implements ScriptAPI {
     @Override
     public Collection<Item> getItemsAtLocation(int x, int y, int z) {
         List<Item> res = new LinkedList<Item>();
-        for(SLObject obj : world.getObjectsInRange(new Point2D(x, y), 0)) {
-            if(obj instanceof Item && obj.getLocation().getZ() == z) {
-                res.add((Item) obj);
+        for(Item itm : world.getItemsAtLocation(new Point2D(x, y))) {
+            if(itm.getLocation().getZ() == z) {
+                res.add(itm);
             }
         }
         return res;
@@ -525,13 +632,7 @@ public class ScriptAPIImpl implements ScriptAPI {
 
     @Override
     public Collection<Item> getItemsAtLocation(int x, int y) {
-        List<Item> res = new LinkedList<Item>();
-        for(SLObject obj : world.getObjectsInRange(new Point2D(x, y), 0)) {
-            if(obj instanceof Item) {
-                res.add((Item) obj);
-            }
-        }
-        return res;
+        return world.getItemsAtLocation(new Point2D(x, y));
     }
 
     @Override
@@ -547,9 +648,9 @@ public class ScriptAPIImpl implements ScriptAPI {
     @Override
     public void throwFireball(Player player, Mobile target) {
         player.lookAt(target);
-        FightPacket packet = new FightPacket(true, player, target);
+        PacketFrame frame = new PacketFrame(new FightPacket(true, player, target));
         for(Player p : world.getInterestedPlayers(target)) {
-            p.sendPacket(packet);
+            p.sendEffect(frame);
         }
     }
 
@@ -148,6 +148,11 @@ public class Item extends SLObject implements SendableItem {
 
     public void decayInMillis(long millis) {
         this.decayAt = Timer.getCurrentTicks() + millis;
+        for(ObjectObserver o : observers) o.onDecayChanged(this);
+    }
+
+    public long getDecayAt() {
+        return decayAt;
     }
 
     public boolean shouldDecay() {
@@ -156,6 +161,7 @@ public class Item extends SLObject implements SendableItem {
 
     public void stopDecay() {
         this.decayAt = 0;
+        for(ObjectObserver o : observers) o.onDecayChanged(this);
     }
 
     public void setBehavior(String behavior) {
@@ -541,6 +547,10 @@ public class Item extends SLObject implements SendableItem {
 
     public void unlock() {
         this.locked = false;
+        if(decayAt > 0) {
+            // decay was skipped while locked
+            for(ObjectObserver o : observers) o.onDecayChanged(this);
+        }
     }
 
     public boolean isLocked() {
@@ -35,12 +35,20 @@ import org.solhost.folko.uosl.libuosl.types.Attribute;
 import org.solhost.folko.uosl.libuosl.types.Direction;
 import org.solhost.folko.uosl.libuosl.types.Items;
 import org.solhost.folko.uosl.libuosl.types.Mobiles;
+import org.solhost.folko.uosl.libuosl.types.Point3D;
+import org.solhost.folko.uosl.libuosl.util.CachedPath;
+import org.solhost.folko.uosl.libuosl.util.TravelPath;
 
 public abstract class Mobile extends SLObject implements SendableMobile {
     private static final long serialVersionUID = 1L;
     private static final Logger log = Logger.getLogger("jphex.mobile");
     protected transient Set<Item> equipped;
     protected transient Map<Mobile, Integer> damagers;
+    protected transient CachedPath chasePath;
+    protected transient TravelPath travelPath;
+    protected transient Point3D travelFailedDest;
+    protected transient int travelFailures;
+    protected transient long travelRetryAt;
     protected boolean refreshRunning;
     protected Direction facing;
     protected Map<Attribute, Long> attributes;
@@ -84,6 +92,41 @@ public abstract class Mobile extends SLObject implements SendableMobile {
         return opponent;
     }
 
+    public CachedPath getChasePath() {
+        return chasePath;
+    }
+
+    public void setChasePath(CachedPath path) {
+        this.chasePath = path;
+    }
+
+    public TravelPath getTravelPath() {
+        return travelPath;
+    }
+
+    public void setTravelPath(TravelPath path) {
+        this.travelPath = path;
+    }
+
+    // a destination that couldn't be reached, how often that happened and when to search again
+    public void setTravelFailure(Point3D dest, int failures, long retryAt) {
+        this.travelFailedDest = dest;
+        this.travelFailures = failures;
+        this.travelRetryAt = retryAt;
+    }
+
+    public Point3D getTravelFailedDest() {
+        return travelFailedDest;
+    }
+
+    public int getTravelFailures() {
+        return travelFailures;
+    }
+
+    public long getTravelRetryAt() {
+        return travelRetryAt;
+    }
+
     public void setAttribute(Attribute a, long value) {
         if(a == Attribute.MAX_HITS || a == Attribute.MAX_FATIGUE || a == Attribute.MAX_MANA || a == Attribute.NEXT_LEVEL) {
             throw new IllegalArgumentException("not writable");
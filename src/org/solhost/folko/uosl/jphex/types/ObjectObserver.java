@@ -26,6 +26,7 @@ public interface ObjectObserver {
     public void onObjectDelete(SLObject src);
     public void onLocationChanged(SLObject src, Point3D oldLoc);
     public void onItemDragged(Item src, Player who);
+    public void onDecayChanged(Item src);
     public void onAttributeChanged(Mobile src, Attribute a);
     public void onItemEquipped(Item item, Mobile mob);
     public void onChildAdded(Item container, Item child);
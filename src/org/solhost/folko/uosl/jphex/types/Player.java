@@ -28,7 +28,7 @@ import java.util.logging.Logger;
 
 import org.solhost.folko.uosl.jphex.engines.Group;
 import org.solhost.folko.uosl.jphex.network.Client;
-import org.solhost.folko.uosl.libuosl.network.packets.LocationPacket;
+import org.solhost.folko.uosl.jphex.network.PacketFrame;
 import org.solhost.folko.uosl.libuosl.network.packets.SLPacket;
 import org.solhost.folko.uosl.libuosl.network.packets.SendTextPacket;
 import org.solhost.folko.uosl.libuosl.network.packets.SoundPacket;
@@ -186,10 +186,47 @@ public class Player extends Mobile {
         }
     }
 
+    // for packets that go to many players
+    public void sendFrame(PacketFrame frame) {
+        if(isOnline()) {
+            client.send(frame);
+        }
+    }
+
+    // for sounds and animations that a lagging client can do without
+    public void sendEffect(PacketFrame frame) {
+        if(isOnline()) {
+            client.sendDroppable(frame);
+        }
+    }
+
+    // the following send methods encode directly into the client's send buffer
+    public void sendObjectInfo(SLObject obj) {
+        if(isOnline()) {
+            client.sendObject(obj);
+        }
+    }
+
+    public void sendEquip(Mobile wearer, Item item) {
+        if(isOnline()) {
+            client.sendEquip(wearer, item);
+        }
+    }
+
+    public void sendStats(Mobile what, boolean relativeHitsOnly) {
+        if(isOnline()) {
+            client.sendStats(what, relativeHitsOnly);
+        }
+    }
+
+    public void sendText(SLObject src, short mode, long color, String text) {
+        if(isOnline()) {
+            client.sendText(src, mode, color, text);
+        }
+    }
+
     public void sendSysMessage(String text) {
-        SendTextPacket packet = new SendTextPacket(null, SendTextPacket.MODE_SYSMSG,
-               SendTextPacket.COLOR_SYSTEM, text);
-        sendPacket(packet);
+        sendText(null, SendTextPacket.MODE_SYSMSG, SendTextPacket.COLOR_SYSTEM, text);
     }
 
     public boolean tryAccess(Item item) {
@@ -296,8 +333,9 @@ public class Player extends Mobile {
     }
 
     public void sendLocation() {
-        SLPacket locationPacket = new LocationPacket(this);
-        sendPacket(locationPacket);
+        if(isOnline()) {
+            client.sendLocation(this);
+        }
     }
 
     public Item getSpellbook() {
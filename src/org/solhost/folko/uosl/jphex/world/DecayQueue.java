@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.jphex.world;
+
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.solhost.folko.uosl.jphex.types.Item;
+
+// items that have a decay time, ordered by that time. Changing the decay time of an
+// item adds a new entry, the old one is recognized as stale when it comes up because
+// it doesn't match the item's time anymore. Not thread-safe, World guards all access
+// with its own monitor
+class DecayQueue {
+    private final PriorityQueue<Entry> entries;
+
+    private static class Entry implements Comparable<Entry> {
+        final long decayAt;
+        final Item item;
+
+        Entry(long decayAt, Item item) {
+            this.decayAt = decayAt;
+            this.item = item;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return Long.compare(decayAt, o.decayAt);
+        }
+    }
+
+    public DecayQueue() {
+        this.entries = new PriorityQueue<Entry>();
+    }
+
+    // call whenever the decay time of an item changed
+    public void update(Item item) {
+        long decayAt = item.getDecayAt();
+        if(decayAt > 0 && !item.isDeleted()) {
+            entries.add(new Entry(decayAt, item));
+        }
+    }
+
+    // move up to max items that should decay now to res, returns false if there are more
+    public boolean pollDecayed(long now, int max, List<Item> res) {
+        while(!entries.isEmpty() && entries.peek().decayAt <= now) {
+            if(res.size() == max) {
+                return false;
+            }
+            Entry entry = entries.poll();
+            Item item = entry.item;
+            if(item.getDecayAt() == entry.decayAt && item.shouldDecay() && !item.isDeleted()) {
+                res.add(item);
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
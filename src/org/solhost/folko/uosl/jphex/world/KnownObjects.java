@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.jphex.world;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.solhost.folko.uosl.jphex.types.Player;
+import org.solhost.folko.uosl.jphex.types.SLObject;
+
+// remembers which objects on the ground each player's client currently shows so that
+// moves only send the difference: every object is sent once when it enters the scene and
+// removed once when it leaves. Indexed both ways so that a moving object finds the players
+// that know it without a range query. Not thread-safe, World guards all access with its
+// own monitor
+class KnownObjects {
+    private final Map<Player, Set<SLObject>> byPlayer;
+    private final Map<SLObject, Set<Player>> byObject;
+
+    public KnownObjects() {
+        this.byPlayer = new HashMap<Player, Set<SLObject>>();
+        this.byObject = new HashMap<SLObject, Set<Player>>();
+    }
+
+    // returns false if the player already knew the object
+    public boolean add(Player player, SLObject obj) {
+        Set<SLObject> objects = byPlayer.get(player);
+        if(objects == null) {
+            objects = new HashSet<SLObject>();
+            byPlayer.put(player, objects);
+        }
+        if(!objects.add(obj)) {
+            return false;
+        }
+
+        Set<Player> players = byObject.get(obj);
+        if(players == null) {
+            players = new HashSet<Player>();
+            byObject.put(obj, players);
+        }
+        players.add(player);
+        return true;
+    }
+
+    // returns false if the player didn't know the object
+    public boolean remove(Player player, SLObject obj) {
+        Set<SLObject> objects = byPlayer.get(player);
+        if(objects == null || !objects.remove(obj)) {
+            return false;
+        }
+
+        Set<Player> players = byObject.get(obj);
+        players.remove(player);
+        if(players.isEmpty()) {
+            byObject.remove(obj);
+        }
+        return true;
+    }
+
+    public boolean isKnown(Player player, SLObject obj) {
+        Set<SLObject> objects = byPlayer.get(player);
+        return objects != null && objects.contains(obj);
+    }
+
+    // copies, so the caller can add and remove while iterating
+    public List<SLObject> getObjectsKnownBy(Player player) {
+        Set<SLObject> objects = byPlayer.get(player);
+        if(objects == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<SLObject>(objects);
+    }
+
+    public List<Player> getPlayersKnowing(SLObject obj) {
+        Set<Player> players = byObject.get(obj);
+        if(players == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<Player>(players);
+    }
+
+    // the object is gone for everyone, e.g. deleted or no longer on the ground
+    public void removeObject(SLObject obj) {
+        Collection<Player> players = byObject.remove(obj);
+        if(players != null) {
+            for(Player player : players) {
+                byPlayer.get(player).remove(obj);
+            }
+        }
+    }
+
+    // the player's client forgot everything, e.g. because it logged out
+    public void removePlayer(Player player) {
+        Collection<SLObject> objects = byPlayer.remove(player);
+        if(objects != null) {
+            for(SLObject obj : objects) {
+                Set<Player> players = byObject.get(obj);
+                players.remove(player);
+                if(players.isEmpty()) {
+                    byObject.remove(obj);
+                }
+            }
+        }
+    }
+}
@@ -29,6 +29,7 @@ import org.solhost.folko.uosl.jphex.types.Mobile;
 import org.solhost.folko.uosl.jphex.types.Player;
 import org.solhost.folko.uosl.jphex.types.SLObject;
 import org.solhost.folko.uosl.libuosl.data.SLStatic;
+import org.solhost.folko.uosl.libuosl.data.SLStatics;
 import org.solhost.folko.uosl.libuosl.types.Items;
 import org.solhost.folko.uosl.libuosl.types.Mobiles;
 
@@ -39,14 +40,14 @@ public class ObjectRegistry {
     private static ObjectRegistry instance;
     private final CopyOnWriteArraySet<SerialObserver> observers;
     private final Map<Long, SLObject> objects;
-    private final Map<Long, SLStatic> statics;
+    private final SLStatics statics;
     private long nextItemSerial, nextMobileSerial;
 
     public interface SerialObserver {
         public void onObjectRegistered(SLObject object);
     }
 
-    private ObjectRegistry(Map<Long, SLStatic> statics, Map<Long, SLObject> objects) {
+    private ObjectRegistry(SLStatics statics, Map<Long, SLObject> objects) {
         this.observers = new CopyOnWriteArraySet<SerialObserver>();
         this.statics = statics;
         this.objects = objects;
@@ -54,11 +55,8 @@ public class ObjectRegistry {
         this.nextMobileSerial = Mobiles.SERIAL_FIRST;
 
         // count stuff so we know the next free serials
-        for(SLStatic stat : statics.values()) {
-            long serial = stat.getSerial();
-            if(serial >= nextItemSerial) {
-                nextItemSerial = serial + 1;
-            }
+        if(statics.getHighestSerial() >= nextItemSerial) {
+            nextItemSerial = statics.getHighestSerial() + 1;
         }
 
         for(SLObject obj : objects.values()) {
@@ -73,12 +71,12 @@ public class ObjectRegistry {
                 }
             }
         }
-        log.config(String.format("Initialized with %d dynamic and %d static objects", objects.size(), statics.size()));
+        log.config(String.format("Initialized with %d dynamic and %d static objects", objects.size(), statics.getCount()));
         log.fine(String.format("Next item serial 0x%08X, next mobile serial 0x%08X", nextItemSerial, nextMobileSerial));
     }
 
     // set next usable item and mobile serials
-    public static void init(Map<Long, SLStatic> statics, Map<Long, SLObject> objects) {
+    public static void init(SLStatics statics, Map<Long, SLObject> objects) {
         if(instance != null) {
             throw new UnsupportedOperationException("already initialized");
         }
@@ -174,8 +172,8 @@ public class ObjectRegistry {
         return new ArrayList<SLObject>(objects.values());
     }
 
-    public synchronized SLStatic findStatic(long serial) {
-        return statics.get(serial);
+    public SLStatic findStatic(long serial) {
+        return statics.findStatic(serial);
     }
 
 }
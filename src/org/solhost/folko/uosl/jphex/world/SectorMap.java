@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.jphex.world;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.solhost.folko.uosl.jphex.types.SLObject;
+import org.solhost.folko.uosl.libuosl.types.Point2D;
+import org.solhost.folko.uosl.libuosl.types.Point3D;
+
+// spatial index that sorts objects into sectors of 8x8 tiles (same layout as map cells)
+// so that range queries only need to look at the sectors that overlap the range.
+// not thread-safe, World guards all access with its own monitor
+class SectorMap {
+    public static final int SECTOR_SIZE = 8;
+    private static final int SECTORS_X = Point2D.MAP_WIDTH / SECTOR_SIZE;
+    private static final int SECTORS_Y = Point2D.MAP_HEIGHT / SECTOR_SIZE;
+
+    private final List<Set<SLObject>> sectors;
+    private final Map<SLObject, Integer> filedIn;
+
+    public SectorMap() {
+        this.sectors = new ArrayList<Set<SLObject>>(SECTORS_X * SECTORS_Y);
+        for(int i = 0; i < SECTORS_X * SECTORS_Y; i++) {
+            sectors.add(null);
+        }
+        this.filedIn = new HashMap<SLObject, Integer>();
+    }
+
+    private static int sectorX(int x) {
+        return Math.max(0, Math.min(SECTORS_X - 1, x / SECTOR_SIZE));
+    }
+
+    private static int sectorY(int y) {
+        return Math.max(0, Math.min(SECTORS_Y - 1, y / SECTOR_SIZE));
+    }
+
+    private static int sectorIndex(int sx, int sy) {
+        return sx * SECTORS_Y + sy;
+    }
+
+    // add an object or move it to the sector of its current location
+    public void update(SLObject obj) {
+        Point3D loc = obj.getLocation();
+        if(loc == null) {
+            remove(obj);
+            return;
+        }
+
+        int index = sectorIndex(sectorX(loc.getX()), sectorY(loc.getY()));
+        Integer old = filedIn.get(obj);
+        if(old != null) {
+            if(old == index) {
+                return;
+            }
+            sectors.get(old).remove(obj);
+        }
+
+        Set<SLObject> sector = sectors.get(index);
+        if(sector == null) {
+            sector = new HashSet<SLObject>();
+            sectors.set(index, sector);
+        }
+        sector.add(obj);
+        filedIn.put(obj, index);
+    }
+
+    // like update, but only for objects that are already in the map
+    public void move(SLObject obj) {
+        if(filedIn.containsKey(obj)) {
+            update(obj);
+        }
+    }
+
+    public void remove(SLObject obj) {
+        Integer old = filedIn.remove(obj);
+        if(old != null) {
+            sectors.get(old).remove(obj);
+        }
+    }
+
+    // all non-empty sectors that contain points within range of the given point,
+    // the objects in it still need to be checked for their actual distance
+    public List<Set<SLObject>> getSectorsInRange(Point2D point, int range) {
+        int minX = sectorX(point.getX() - range), maxX = sectorX(point.getX() + range);
+        int minY = sectorY(point.getY() - range), maxY = sectorY(point.getY() + range);
+
+        List<Set<SLObject>> res = new ArrayList<Set<SLObject>>((maxX - minX + 1) * (maxY - minY + 1));
+        for(int sx = minX; sx <= maxX; sx++) {
+            for(int sy = minY; sy <= maxY; sy++) {
+                Set<SLObject> sector = sectors.get(sectorIndex(sx, sy));
+                if(sector != null && !sector.isEmpty()) {
+                    res.add(sector);
+                }
+            }
+        }
+        return res;
+    }
+
+    // like getSectorsInRange, but without the sectors that were completely within range
+    // of the old point already: nothing in them can have come into range by the move
+    public List<Set<SLObject>> getSectorsEnteringRange(Point2D oldPoint, Point2D point, int range) {
+        int minX = sectorX(point.getX() - range), maxX = sectorX(point.getX() + range);
+        int minY = sectorY(point.getY() - range), maxY = sectorY(point.getY() + range);
+
+        List<Set<SLObject>> res = new ArrayList<Set<SLObject>>();
+        for(int sx = minX; sx <= maxX; sx++) {
+            for(int sy = minY; sy <= maxY; sy++) {
+                Set<SLObject> sector = sectors.get(sectorIndex(sx, sy));
+                if(sector != null && !sector.isEmpty() && !isSectorInRange(sx, sy, oldPoint, range)) {
+                    res.add(sector);
+                }
+            }
+        }
+        return res;
+    }
+
+    // the range is a disc and thus convex, so checking the corners is enough
+    private static boolean isSectorInRange(int sx, int sy, Point2D point, int range) {
+        // the last sectors also hold the coordinates on the map border
+        int x0 = sx * SECTOR_SIZE, x1 = (sx == SECTORS_X - 1) ? Point2D.MAP_WIDTH : x0 + SECTOR_SIZE - 1;
+        int y0 = sy * SECTOR_SIZE, y1 = (sy == SECTORS_Y - 1) ? Point2D.MAP_HEIGHT : y0 + SECTOR_SIZE - 1;
+        return inRange(x0, y0, point, range) && inRange(x1, y0, point, range)
+                && inRange(x0, y1, point, range) && inRange(x1, y1, point, range);
+    }
+
+    // same distance as Point2D.distanceTo
+    private static boolean inRange(int x, int y, Point2D point, int range) {
+        int dx = x - point.getX();
+        int dy = y - point.getY();
+        return Math.round(Math.sqrt(dx * dx + dy * dy)) <= range;
+    }
+
+    public int size() {
+        return filedIn.size();
+    }
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.jphex.world;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.solhost.folko.uosl.jphex.types.Item;
+import org.solhost.folko.uosl.libuosl.types.Point2D;
+import org.solhost.folko.uosl.libuosl.types.Point3D;
+
+// index of the items lying on the ground, keyed by their tile.
+// used by the move check and path finding so they only see the items of the tile they check.
+// tiles are grouped in 8x8 cells so that empty areas don't need any memory.
+// not thread-safe, World guards all access with its own monitor
+class TileItemMap {
+    private static final int CELL_SIZE = 8;
+    // coordinates are allowed to be equal to the map size
+    private static final int CELLS_X = Point2D.MAP_WIDTH / CELL_SIZE + 1;
+    private static final int CELLS_Y = Point2D.MAP_HEIGHT / CELL_SIZE + 1;
+
+    private final List<List<List<Item>>> cells;
+    private final Map<Item, Integer> filedIn;
+
+    public TileItemMap() {
+        this.cells = new ArrayList<List<List<Item>>>(CELLS_X * CELLS_Y);
+        for(int i = 0; i < CELLS_X * CELLS_Y; i++) {
+            cells.add(null);
+        }
+        this.filedIn = new HashMap<Item, Integer>();
+    }
+
+    private static int cellIndex(int x, int y) {
+        return (x / CELL_SIZE) * CELLS_Y + (y / CELL_SIZE);
+    }
+
+    private static int tileIndex(int x, int y) {
+        return (x % CELL_SIZE) + (y % CELL_SIZE) * CELL_SIZE;
+    }
+
+    // add, move or remove the item depending on whether and where it is on the ground now
+    public void update(Item item) {
+        if(!item.isOnGround() || item.isDeleted()) {
+            remove(item);
+            return;
+        }
+
+        Point3D loc = item.getLocation();
+        int key = cellIndex(loc.getX(), loc.getY()) * CELL_SIZE * CELL_SIZE + tileIndex(loc.getX(), loc.getY());
+        Integer old = filedIn.get(item);
+        if(old != null) {
+            if(old == key) {
+                return;
+            }
+            removeFromTile(old, item);
+        }
+
+        int cellIndex = key / (CELL_SIZE * CELL_SIZE);
+        List<List<Item>> cell = cells.get(cellIndex);
+        if(cell == null) {
+            cell = new ArrayList<List<Item>>(CELL_SIZE * CELL_SIZE);
+            for(int i = 0; i < CELL_SIZE * CELL_SIZE; i++) {
+                cell.add(null);
+            }
+            cells.set(cellIndex, cell);
+        }
+        int tileIndex = key % (CELL_SIZE * CELL_SIZE);
+        List<Item> tile = cell.get(tileIndex);
+        if(tile == null) {
+            tile = new ArrayList<Item>(2);
+            cell.set(tileIndex, tile);
+        }
+        tile.add(item);
+        filedIn.put(item, key);
+    }
+
+    public void remove(Item item) {
+        Integer old = filedIn.remove(item);
+        if(old != null) {
+            removeFromTile(old, item);
+        }
+    }
+
+    private void removeFromTile(int key, Item item) {
+        List<List<Item>> cell = cells.get(key / (CELL_SIZE * CELL_SIZE));
+        List<Item> tile = cell.get(key % (CELL_SIZE * CELL_SIZE));
+        tile.remove(item);
+    }
+
+    // the returned list must not be modified
+    public List<Item> getItemsAt(int x, int y) {
+        List<List<Item>> cell = cells.get(cellIndex(x, y));
+        if(cell == null) {
+            return Collections.emptyList();
+        }
+        List<Item> tile = cell.get(tileIndex(x, y));
+        if(tile == null) {
+            return Collections.emptyList();
+        }
+        return tile;
+    }
+
+    public int size() {
+        return filedIn.size();
+    }
+}
@@ -24,9 +24,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -38,9 +40,12 @@ import org.solhost.folko.uosl.common.RandUtil;
 import org.solhost.folko.uosl.jphex.engines.BulletinBoard;
 import org.solhost.folko.uosl.jphex.engines.DayNightCycle;
 import org.solhost.folko.uosl.jphex.engines.Group;
+import org.solhost.folko.uosl.jphex.engines.RegenerationEngine;
 import org.solhost.folko.uosl.jphex.engines.Timer;
 import org.solhost.folko.uosl.jphex.engines.TimerQueue;
 import org.solhost.folko.uosl.jphex.engines.DayNightCycle.TimeListener;
+import org.solhost.folko.uosl.jphex.engines.RegenerationEngine.RegenerationListener;
+import org.solhost.folko.uosl.jphex.network.PacketFrame;
 import org.solhost.folko.uosl.jphex.scripting.*;
 import org.solhost.folko.uosl.jphex.types.*;
 import org.solhost.folko.uosl.jphex.world.ObjectRegistry.SerialObserver;
@@ -49,12 +54,15 @@ import org.solhost.folko.uosl.libuosl.network.packets.*;
 import org.solhost.folko.uosl.libuosl.types.*;
 import org.solhost.folko.uosl.libuosl.util.ObjectLister;
 
-public class World implements ObjectObserver, SerialObserver, ObjectLister, TimeListener {
+public class World implements ObjectObserver, SerialObserver, ObjectLister, TimeListener, RegenerationListener {
     public static final int VISIBLE_RANGE = 15;
     public static final int SPEECH_RANGE = 10;
     public static final int ENTER_AREA_RANGE = 5;
     public static final int STAT_REFRESH_DELAY = 1200;
     public static final int DECAY_MINUTES = 15;
+    public static final int DECAY_BATCH_SIZE = 50; // items deleted per batch
+    public static final int DECAY_CHECK_DELAY = 1000;
+    public static final int DECAY_BACKLOG_DELAY = 50;
 
     // Make an ingame day be one real hour
     public static final int SECONDS_PER_INGAME_HOUR = 150;
@@ -73,10 +81,28 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
     private ObjectRegistry registry;
     private BulletinBoard board;
     private final Set<Player> onlinePlayers;
+    private final SectorMap sectors;
+    private final TileItemMap tileItems;
     private final DayNightCycle dayNightCycle;
+    private final KnownObjects knownObjects;
+    private final Map<Mobile, Timer> fightTimers;
+    private final DecayQueue decayQueue;
+    private final RegenerationEngine regeneration;
+    // stat updates collected during a regeneration sweep
+    private final Set<Mobile> regeneratedHits;
+    private final Set<Player> regeneratedSelf;
+    private boolean inRegenerationSweep;
 
     private World(String savePath) {
         this.onlinePlayers = new HashSet<Player>();
+        this.knownObjects = new KnownObjects();
+        this.fightTimers = new HashMap<Mobile, Timer>();
+        this.decayQueue = new DecayQueue();
+        this.regeneration = new RegenerationEngine(this, STAT_REFRESH_DELAY);
+        this.regeneratedHits = new LinkedHashSet<Mobile>();
+        this.regeneratedSelf = new LinkedHashSet<Player>();
+        this.sectors = new SectorMap();
+        this.tileItems = new TileItemMap();
         this.savePath = savePath;
         this.dayNightCycle = new DayNightCycle(this, SECONDS_PER_INGAME_HOUR);
     }
@@ -104,7 +130,7 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
             objIn.close();
             saveFile.close();
         }
-        ObjectRegistry.init(SLData.get().getStatics().getAllStatics(), objects);
+        ObjectRegistry.init(SLData.get().getStatics(), objects);
         world.registry = ObjectRegistry.get();
 
         for(SLObject orphan : orphans.keySet()) {
@@ -178,7 +204,13 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
                 }
             }
             obj.addObserver(this);
+            sectors.update(obj);
+            if(obj instanceof Item) {
+                tileItems.update((Item) obj);
+                decayQueue.update((Item) obj);
+            }
         }
+        log.fine(String.format("Sector map contains %d objects, %d items on ground", sectors.size(), tileItems.size()));
         dayNightCycle.start();
         startDecayTimer();
     }
@@ -186,18 +218,31 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
     public synchronized void startDecayTimer() {
         Runnable decay = new Runnable() {
             public void run() {
-                log.fine("Running decay loop...");
-                for(SLObject obj : registry.allObjects()) {
-                    if(obj instanceof Item && ((Item) obj).shouldDecay()) {
-                        log.finer(obj.getName() + " decayed");
-                        obj.delete();
-                    }
-                }
-                TimerQueue.get().addTimer(new Timer(DECAY_MINUTES * 30 * 1000, this));
+                boolean more = runDecayBatch();
+                // work off a backlog quickly, but still give everything else a chance in between
+                TimerQueue.get().addTimer(new Timer(more ? DECAY_BACKLOG_DELAY : DECAY_CHECK_DELAY, this));
             }
         };
-        // run decay timer each decay_minutes / 2 minutes
-        TimerQueue.get().addTimer(new Timer(DECAY_MINUTES * 30 * 1000, decay));
+        TimerQueue.get().addTimer(new Timer(DECAY_CHECK_DELAY, decay));
+    }
+
+    // delete up to DECAY_BATCH_SIZE items that are due, returns true if there are more
+    private synchronized boolean runDecayBatch() {
+        List<Item> decayed = new ArrayList<Item>();
+        boolean done = decayQueue.pollDecayed(Timer.getCurrentTicks(), DECAY_BATCH_SIZE, decayed);
+        for(Item item : decayed) {
+            // could have been listed twice or deleted along with its container
+            if(!item.isDeleted()) {
+                log.finer(item.getName() + " decayed");
+                item.delete();
+            }
+        }
+        return !done;
+    }
+
+    @Override
+    public synchronized void onDecayChanged(Item item) {
+        decayQueue.update(item);
     }
 
     public synchronized Collection<Player> getOnlinePlayersInRange(Point2D point, int range) {
@@ -223,11 +268,29 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
     // objects on ground
     public synchronized Collection<SLObject> getObjectsInRange(Point2D point, int range) {
         List<SLObject> res = new LinkedList<SLObject>();
-        for(SLObject obj : registry.allObjects()) {
-            if(obj instanceof Item && !((Item) obj).isOnGround()) continue;
+        for(Set<SLObject> sector : sectors.getSectorsInRange(point, range)) {
+            for(SLObject obj : sector) {
+                if(obj instanceof Item && !((Item) obj).isOnGround()) continue;
 
-            if(obj.isVisible() && obj.inRange(point, range)) {
-                res.add(obj);
+                if(obj.isVisible() && obj.inRange(point, range)) {
+                    res.add(obj);
+                }
+            }
+        }
+        return res;
+    }
+
+    // visible objects on ground that are in range of point, but possibly weren't in range
+    // of oldPoint. Only looks at the sectors that weren't completely in range before
+    private Collection<SLObject> getObjectsEnteringRange(Point2D oldPoint, Point2D point, int range) {
+        List<SLObject> res = new ArrayList<SLObject>();
+        for(Set<SLObject> sector : sectors.getSectorsEnteringRange(oldPoint, point, range)) {
+            for(SLObject obj : sector) {
+                if(obj instanceof Item && !((Item) obj).isOnGround()) continue;
+
+                if(obj.isVisible() && obj.inRange(point, range)) {
+                    res.add(obj);
+                }
             }
         }
         return res;
@@ -238,9 +301,7 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
         player.sendPacket(init);
 
         sendStats(player, player);
-
-        SLPacket locationPacket = new LocationPacket(player);
-        player.sendPacket(locationPacket);
+        player.sendLocation();
     }
 
     public synchronized void loginPlayer(Player player) {
@@ -273,6 +334,7 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
         Group.leaveGroup(player);
         cancelDrag(player, player.getDraggedItem());
         onlinePlayers.remove(player);
+        knownObjects.removePlayer(player);
         log.info(player.getName() + " logged out, " + onlinePlayers.size() + " online");
     }
 
@@ -312,18 +374,49 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
         }
     }
 
+    // visible items on ground at a location
+    public synchronized Collection<Item> getItemsAtLocation(Point2D loc) {
+        List<Item> res = new LinkedList<Item>();
+        for(Item itm : tileItems.getItemsAt(loc.getX(), loc.getY())) {
+            if(itm.isVisible()) {
+                res.add(itm);
+            }
+        }
+        return res;
+    }
+
     @Override
     public synchronized List<SLStatic> getStaticsAndDynamicsAtLocation(Point2D loc) {
         List<SLStatic> res = new LinkedList<SLStatic>(SLData.get().getStatics().getStatics(loc));
-        for(SLObject obj : getObjectsInRange(loc, 0)) {
-            if(obj instanceof Item && loc.equals(obj.getLocation())) {
-                SLStatic dynamic = new SLStatic(obj.getSerial(), obj.getGraphic(), obj.getLocation(), 0);
-                res.add(dynamic);
-            }
+        for(Item itm : getItemsAtLocation(loc)) {
+            SLStatic dynamic = new SLStatic(itm.getSerial(), itm.getGraphic(), itm.getLocation(), 0);
+            res.add(dynamic);
         }
         return res;
     }
 
+    @Override
+    public synchronized void visitStaticsAndDynamicsAtLocation(Point2D loc, StaticVisitor visitor) {
+        SLData.get().getStatics().visitStatics(loc, visitor);
+        visitDynamicsAtLocation(loc, visitor);
+    }
+
+    @Override
+    public boolean listsDynamicsSeparately() {
+        return true;
+    }
+
+    @Override
+    public synchronized void visitDynamicsAtLocation(Point2D loc, StaticVisitor visitor) {
+        List<Item> items = tileItems.getItemsAt(loc.getX(), loc.getY());
+        for(int i = 0; i < items.size(); i++) {
+            Item itm = items.get(i);
+            if(itm.isVisible()) {
+                visitor.visitStatic(itm.getSerial(), itm.getGraphic(), itm.getLocation().getZ(), 0);
+            }
+        }
+    }
+
     public synchronized  boolean onPlayerRequestMove(Player player, Direction dir, boolean running) {
         if(player.isFrozen()) {
             // Nothing permitted if frozen
@@ -436,8 +529,7 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
     public synchronized void sendStats(Player player, Mobile what) {
         // if we're sending the status of someone else, send it in percent so you can't spy the actual values
         boolean relativeOnly = (player != what);
-        StatsUpdatePacket packet = new StatsUpdatePacket(what, relativeOnly);
-        player.sendPacket(packet);
+        player.sendStats(what, relativeOnly);
     }
 
     public synchronized void onDoubleClickStatic(Player player, SLStatic stat) {
@@ -464,13 +556,16 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
         if(obj instanceof Item) {
             Item i = (Item) obj;
             if(i.isOnGround()) {
-                SendObjectPacket packet;
-                packet = new SendObjectPacket(i);
-                player.sendPacket(packet);
-            } else if(i.isWorn()) {
+                player.sendObjectInfo(i);
+                knownObjects.add(player, i);
+                return;
+            }
+
+            // not on the ground (anymore), the client shows it elsewhere now
+            knownObjects.remove(player, i);
+            if(i.isWorn()) {
                 Mobile wearer = (Mobile) i.getParent();
-                EquipPacket equip = new EquipPacket(wearer, i);
-                player.sendPacket(equip);
+                player.sendEquip(wearer, i);
             } else if(i.isInContainer()) {
                 Item container = (Item) i.getParent();
                 ItemInContainerPacket packet = new ItemInContainerPacket(i, container);
@@ -478,9 +573,8 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
             }
         } else if(obj instanceof Mobile) {
             Mobile m = (Mobile) obj;
-            SendObjectPacket packet;
-            packet = new SendObjectPacket(m);
-            player.sendPacket(packet);
+            player.sendObjectInfo(m);
+            knownObjects.add(player, m);
         } else {
             throw new RuntimeException("sendObject: don't know how to send " + obj);
         }
@@ -496,6 +590,7 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
 
     public synchronized void sendDelete(Player player, SLObject obj) {
         player.sendPacket(new RemoveObjectPacket(obj));
+        knownObjects.remove(player, obj);
     }
 
     public synchronized void onDrag(Player player, Item item, int amount) {
@@ -674,10 +769,10 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
         NPC helloNPC = null;
 
         // normal speech -> send to players and NPCs
-        SendTextPacket packet = new SendTextPacket(src, SendTextPacket.MODE_SAY, color, text);
+        PacketFrame frame = new PacketFrame(new SendTextPacket(src, SendTextPacket.MODE_SAY, color, text));
         for(SLObject obj : getObjectsInRange(src.getLocation(), SPEECH_RANGE)) {
             if(obj instanceof Player) {
-                ((Player) obj).sendPacket(packet);
+                ((Player) obj).sendFrame(frame);
             } else if(obj instanceof NPC) {
                 if(isHello) {
                     if(src.distanceTo(obj) < minDist) {
@@ -767,25 +862,23 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
         } else {
             color = SendTextPacket.COLOR_SYSTEM;
         }
-        SendTextPacket packet = new SendTextPacket(who, SendTextPacket.MODE_SEE, color, name);
-        toWhom.sendPacket(packet);
+        toWhom.sendText(who, SendTextPacket.MODE_SEE, color, name);
         if(extended && who instanceof Player) {
-            SendTextPacket packet2 = new SendTextPacket(who, SendTextPacket.MODE_SEE, color, "Level " + who.getAttribute(Attribute.LEVEL));
-            toWhom.sendPacket(packet2);
+            toWhom.sendText(who, SendTextPacket.MODE_SEE, color, "Level " + who.getAttribute(Attribute.LEVEL));
         }
     }
 
     public synchronized void sayAbove(SLObject obj, String text) {
-        SendTextPacket packet = new SendTextPacket(obj, SendTextPacket.MODE_SAY, SendTextPacket.COLOR_SEE_NPC, text);
+        PacketFrame frame = new PacketFrame(new SendTextPacket(obj, SendTextPacket.MODE_SAY, SendTextPacket.COLOR_SEE_NPC, text));
         for(Player p : getOnlinePlayersInRange(obj.getLocation(), World.VISIBLE_RANGE)) {
-            p.sendPacket(packet);
+            p.sendFrame(frame);
         }
     }
 
     public synchronized void sayAbove(Mobile mob, String text, long color) {
-        SendTextPacket packet = new SendTextPacket(mob, SendTextPacket.MODE_SAY, color, text);
+        PacketFrame frame = new PacketFrame(new SendTextPacket(mob, SendTextPacket.MODE_SAY, color, text));
         for(Player p : getOnlinePlayersInRange(mob.getLocation(), World.VISIBLE_RANGE)) {
-            p.sendPacket(packet);
+            p.sendFrame(frame);
         }
     }
 
@@ -958,6 +1051,12 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
         player.setOpponent(victim);
     }
 
+    // for damage that isn't dealt by the world itself, e.g. spells: the hits are changed
+    // under the world's lock, so this can't interleave with a fight round
+    public synchronized boolean dealDamage(Mobile mob, int damage, Mobile source) {
+        return mob.dealDamage(damage, source);
+    }
+
     // returns whether there could be a next round
     private synchronized boolean doFightRound(Mobile attacker, Mobile defender) {
         int deltaZ = Math.abs(attacker.getLocation().getZ() - defender.getLocation().getZ());
@@ -992,9 +1091,9 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
         }
 
         if(attacker.hasFightAnimation()) {
-            FightPacket packet = new FightPacket(false, attacker, defender);
+            PacketFrame frame = new PacketFrame(new FightPacket(false, attacker, defender));
             for(Player p : getInterestedPlayers(attacker)) {
-                p.sendPacket(packet);
+                p.sendEffect(frame);
             }
         }
 
@@ -1011,8 +1110,12 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
     }
 
     public synchronized void playSound(int id, Point2D where) {
+        PacketFrame frame = null;
         for(Player p : getOnlinePlayersInRange(where, VISIBLE_RANGE)) {
-            p.sendSound(id);
+            if(frame == null) {
+                frame = new PacketFrame(new SoundPacket(id));
+            }
+            p.sendEffect(frame);
         }
     }
 
@@ -1024,29 +1127,32 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
         }
     }
 
-    private synchronized void runRefresh(final Mobile mob) {
-        if(mob.isRefreshRunning() || !mob.needsRefresh()) {
-            return;
-        }
-        Runnable refreshAction = new Runnable() {
-            public void run() {
-                if(!mob.needsRefresh() || !mob.canRefresh()) {
-                    mob.setRefreshRunning(false);
-                    return;
-                }
+    private synchronized void runRefresh(Mobile mob) {
+        regeneration.add(mob);
+    }
 
-                mob.doRefreshStep();
+    @Override
+    public synchronized void onRegenerationDue() {
+        // a step changes up to three stats of each mobile, only send one update per viewer
+        inRegenerationSweep = true;
+        try {
+            regeneration.sweep();
+        } finally {
+            inRegenerationSweep = false;
+        }
 
-                // check if it needs another refresh after this step
-                if(mob.needsRefresh()) {
-                    TimerQueue.get().addTimer(new Timer(STAT_REFRESH_DELAY, this));
-                } else {
-                    mob.setRefreshRunning(false);
-                }
+        for(Mobile mob : regeneratedHits) {
+            for(Player player : getInterestedPlayers(mob)) {
+                sendStats(player, mob);
             }
-        };
-        mob.setRefreshRunning(true);
-        TimerQueue.get().addTimer(new Timer(STAT_REFRESH_DELAY, refreshAction));
+            // a player is interested in itself, so that covers its own update
+            regeneratedSelf.remove(mob);
+        }
+        for(Player player : regeneratedSelf) {
+            sendStats(player, player);
+        }
+        regeneratedHits.clear();
+        regeneratedSelf.clear();
     }
 
     public void onBBoardList(Player player) {
@@ -1064,9 +1170,9 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
     @Override
     public void onTimeChange(boolean phaseChanged) {
         log.fine("Ingame hour: " + dayNightCycle.getHour() + ", light level: " + dayNightCycle.getLightLevel());
-        GlobalLightLevelPacket packet = new GlobalLightLevelPacket(dayNightCycle.getLightLevel());
+        PacketFrame frame = new PacketFrame(new GlobalLightLevelPacket(dayNightCycle.getLightLevel()));
         for(Player player : getOnlinePlayers()) {
-            player.sendPacket(packet);
+            player.sendFrame(frame);
         }
     }
 
@@ -1101,6 +1207,10 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
     @Override
     public synchronized void onLocationChanged(SLObject obj, Point3D oldLoc) {
         Point3D newLoc = obj.getLocation();
+        sectors.move(obj);
+        if(obj instanceof Item) {
+            tileItems.update((Item) obj);
+        }
 
         // special case: an item that's not on ground doesn't have a real location
         if(obj instanceof Item && !((Item) obj).isOnGround()) {
@@ -1111,12 +1221,14 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
                     sendDelete(player, obj);
                 }
             }
+            // nobody sees it on the ground anymore
+            knownObjects.removeObject(obj);
             return;
         }
 
         // send remove to players that no longer see it
-        for(Player player : getOnlinePlayersInRange(oldLoc, VISIBLE_RANGE)) {
-            if(player.distanceTo(newLoc) > VISIBLE_RANGE && obj != player) {
+        for(Player player : knownObjects.getPlayersKnowing(obj)) {
+            if(player.distanceTo(newLoc) > VISIBLE_RANGE) {
                 log.finer(String.format("sending move of %08X to %s -> delete", obj.getSerial(), player.getName()));
                 sendDelete(player, obj);
             }
@@ -1126,12 +1238,11 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
         for(Player player : getInterestedPlayers(obj)) {
             if(obj != player) {
                 log.finer(String.format("sending move of %08X to %s -> update", obj.getSerial(), player.getName()));
+                boolean known = knownObjects.isKnown(player, obj);
                 sendObject(player, obj);
-                if(obj instanceof Mobile) {
-                    if(player.distanceTo(oldLoc) > VISIBLE_RANGE) {
-                        // wasn't visible before -> also send equip
-                        sendFullEquipment(player, (Mobile) obj);
-                    }
+                if(obj instanceof Mobile && !known) {
+                    // wasn't visible before -> also send equip
+                    sendFullEquipment(player, (Mobile) obj);
                 }
             }
         }
@@ -1146,36 +1257,42 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
                 }
 
                 // delete no longer visible objects
-                for(SLObject oldObj : getObjectsInRange(oldLoc, VISIBLE_RANGE)) {
-                    if(oldObj.distanceTo(movedPlayer) > VISIBLE_RANGE && oldObj != movedPlayer) {
+                for(SLObject oldObj : knownObjects.getObjectsKnownBy(movedPlayer)) {
+                    if(oldObj.distanceTo(movedPlayer) > VISIBLE_RANGE) {
                         log.finer(String.format("%s moved, %08X left scene", movedPlayer.getName(), oldObj.getSerial()));
                         sendDelete(movedPlayer, oldObj);
                     }
                 }
 
-                // send now visible objects
-                for(SLObject newObj : getObjectsInRange(newLoc, VISIBLE_RANGE)) {
+                // inform NPCs that are now in range
+                for(SLObject near : getObjectsEnteringRange(oldLoc, newLoc, SPEECH_RANGE)) {
+                    if(near instanceof NPC && near.distanceTo(oldLoc) > SPEECH_RANGE) {
+                        ((NPC) near).onEnterArea(movedPlayer);
+                    }
+                }
+
+                // send now visible objects, a forced move redraws everything
+                Collection<SLObject> candidates;
+                if(wasForced) {
+                    candidates = getObjectsInRange(newLoc, VISIBLE_RANGE);
+                } else {
+                    candidates = getObjectsEnteringRange(oldLoc, newLoc, VISIBLE_RANGE);
+                }
+                for(SLObject newObj : candidates) {
                     if(newObj == movedPlayer) {
                         // player always sees itself anyways
                         continue;
                     }
 
-                    // inform NPCs that are now in range
-                    if(newObj instanceof NPC && newObj.distanceTo(oldLoc) > SPEECH_RANGE && newObj.distanceTo(newLoc) <= SPEECH_RANGE) {
-                        ((NPC) newObj).onEnterArea(movedPlayer);
-                    }
-
-                    if(!wasForced && newObj.distanceTo(oldLoc) <= VISIBLE_RANGE) {
+                    if(!wasForced && knownObjects.isKnown(movedPlayer, newObj)) {
                         // not really new because it was also visible before
                         continue;
                     }
 
-                    if(newObj.isVisible()) {
-                        log.finer(String.format("%s moved, %08X entered scene", movedPlayer.getName(), newObj.getSerial()));
-                        sendObject(movedPlayer, newObj);
-                        if(newObj instanceof Mobile) {
-                            sendFullEquipment(movedPlayer, (Mobile) newObj);
-                        }
+                    log.finer(String.format("%s moved, %08X entered scene", movedPlayer.getName(), newObj.getSerial()));
+                    sendObject(movedPlayer, newObj);
+                    if(newObj instanceof Mobile) {
+                        sendFullEquipment(movedPlayer, (Mobile) newObj);
                     }
                 }
             }
@@ -1187,6 +1304,7 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
         for(Player player : getInterestedPlayers(obj)) {
             sendDelete(player, obj);
         }
+        knownObjects.removeObject(obj);
 
         if(obj instanceof Player) {
             Player p = (Player) obj;
@@ -1206,7 +1324,14 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
             }
         }
 
+        if(obj instanceof Mobile) {
+            cancelFight((Mobile) obj);
+        }
         obj.removeObserver(this);
+        sectors.remove(obj);
+        if(obj instanceof Item) {
+            tileItems.remove((Item) obj);
+        }
         registry.removeObject(obj.getSerial());
     }
 
@@ -1224,6 +1349,16 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
 
     @Override
     public synchronized void onAttributeChanged(Mobile mob, Attribute a) {
+        if(inRegenerationSweep && a.isDynamicStat()) {
+            // sent in one go at the end of the sweep
+            if(a == Attribute.HITS) {
+                regeneratedHits.add(mob);
+            } else if(mob instanceof Player) {
+                regeneratedSelf.add((Player) mob);
+            }
+            return;
+        }
+
         if(a == Attribute.HITS || a == Attribute.MAX_HITS) {
             // Someone's hit points changed -> tell everyone that can see them
             for(Player player : getInterestedPlayers(mob)) {
@@ -1244,6 +1379,8 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
 
     @Override
     public synchronized void onItemEquipped(Item item, Mobile mob) {
+        sectors.move(item);
+        tileItems.update(item);
         for(Player player : getOnlinePlayersInRange(mob.getLocation(), VISIBLE_RANGE)) {
             sendObject(player, item);
             player.sendLocation(); // fix redraw error
@@ -1252,6 +1389,9 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
 
     @Override
     public synchronized void onChildAdded(Item container, Item child) {
+        // the child's location was changed to a container location
+        sectors.move(child);
+        tileItems.update(child);
         for(Player player : getInterestedPlayers(child)) {
             log.finer(String.format("item %08X in container %08X -> to %s", child.getSerial(), container.getSerial(), player.getName()));
             sendObject(player, child);
@@ -1315,6 +1455,7 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
     public synchronized void onOpponentChanged(final Mobile attacker, final Mobile defender, final Mobile oldDefender) {
         if(defender == null) {
             // cleared
+            cancelFight(attacker);
             return;
         } else if(defender == attacker) {
             attacker.setOpponent(null);
@@ -1331,19 +1472,40 @@ public class World implements ObjectObserver, SerialObserver, ObjectLister, Time
                     if(!canGoOn || !defender.canFight() || !attacker.canFight()) {
                         attacker.setOpponent(null);
                     } else {
-                        TimerQueue.get().addTimer(new Timer(attacker.getSwingSpeed(), this));
+                        scheduleFight(attacker, attacker.getSwingSpeed(), this);
                     }
                 }
             }
         };
 
         // the first attack is also a little delayed so that you can't abuse the system by switching victims
-        TimerQueue.get().addTimer(new Timer(attacker.getSwingSpeed() / 2, fight));
+        scheduleFight(attacker, attacker.getSwingSpeed() / 2, fight);
+    }
+
+    // only one fight timer per attacker: switching victims cancels the swing at the old one
+    private synchronized void scheduleFight(Mobile attacker, long delay, Runnable fight) {
+        // no key: a round modifies both mobiles, so it has to run alone
+        Timer old = fightTimers.put(attacker, TimerQueue.get().addTimer(new Timer(delay, fight)));
+        if(old != null) {
+            old.cancel();
+        }
+    }
+
+    private synchronized void cancelFight(Mobile attacker) {
+        Timer timer = fightTimers.remove(attacker);
+        if(timer != null) {
+            timer.cancel();
+        }
     }
 
     @Override
-    public void onObjectRegistered(SLObject object) {
+    public synchronized void onObjectRegistered(SLObject object) {
         object.addObserver(this);
+        sectors.update(object);
+        if(object instanceof Item) {
+            tileItems.update((Item) object);
+            decayQueue.update((Item) object);
+        }
         onObjectUpdate(object);
     }
 }
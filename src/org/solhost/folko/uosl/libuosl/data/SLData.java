@@ -28,6 +28,7 @@ import org.solhost.folko.uosl.libuosl.types.Direction;
 import org.solhost.folko.uosl.libuosl.types.Point2D;
 import org.solhost.folko.uosl.libuosl.types.Point3D;
 import org.solhost.folko.uosl.libuosl.util.ObjectLister;
+import org.solhost.folko.uosl.libuosl.util.ObjectLister.StaticVisitor;
 
 public class SLData {
     public static boolean DEBUG_MOVE = false;
@@ -41,6 +42,21 @@ public class SLData {
     private SLArt art;
     private SLGumps gumps;
     private SLTiles tiles;
+    private SLSurfaces surfaces;
+
+    // scan states are reused per thread so that checking a location doesn't create objects
+    private final ThreadLocal<StepScan> stepScans = new ThreadLocal<StepScan>() {
+        @Override
+        protected StepScan initialValue() {
+            return new StepScan();
+        }
+    };
+    private final ThreadLocal<SightScan> sightScans = new ThreadLocal<SightScan>() {
+        @Override
+        protected SightScan initialValue() {
+            return new SightScan();
+        }
+    };
 
     private SLData(String dataPath) {
         this.dataPath = dataPath;
@@ -68,6 +84,7 @@ public class SLData {
         art = new SLArt(dataPath +          "/ART.MUL", dataPath + "/ARTIDX.MUL", dataPath + "/ANIMDATA.MUL");
         tiles = new SLTiles(dataPath +      "/TILEDATA.MUL");
         gumps = new SLGumps(dataPath +      "/GUMPS.MUL");
+        surfaces = new SLSurfaces(map, tiles);
     }
 
     // reverse engineered from the client, sub_4061A0
@@ -77,28 +94,105 @@ public class SLData {
     private Point3D getElevatedPointReal(Point3D source, Direction dir, ObjectLister lister) {
         Point2D dest = source.getTranslated(dir);
 
-        int currentZ = source.getZ();
-        int currZp9 = currentZ + 9;
-        int finalZ = -128;
-        int edi = -128;
-        boolean staticsAllowWalking = false;
-        for(SLStatic stat : lister.getStaticsAndDynamicsAtLocation(dest)) {
-            StaticTile tile = tiles.getStaticTile(stat.getStaticID());
-            int eax = stat.getLocation().getZ();
+        StepScan scan = stepScans.get();
+        scan.reset(source.getZ());
+        visitLocation(dest, lister, scan);
+        if(scan.edi > -128) {
+            // there are statics in our way
+            if(scan.staticsAllowWalking) {
+                return new Point3D(dest, scan.finalZ);
+            } else {
+                return null;
+            }
+        }
+
+        int finalZ;
+
+        // statics are ok, need to check land
+
+        // maybe todo: if lastStat.blocks: return false;
+
+        if(surfaces.isLandImpassable(dest.getX(), dest.getY())) {
+            return null;
+        }
+
+        finalZ = map.getElevation(dest.getX(), dest.getY());
+
+        int resX = dest.getX();
+        int resY = dest.getY();
+        int resZ = finalZ;
+
+        // blacklist because of map errors where players can escape the test area
+        if((resX == 432 && (resY == 724 || resY == 723 || resY == 722) && resZ == -15) ||
+            (resX == 334 && resY == 707)) {
+            return null;
+        }
+
+        return new Point3D(resX, resY, resZ);
+    }
+
+    // something that looks at the statics and dynamics of a location, using only
+    // their Z and the height and flags of their tile
+    private abstract class LocationScan implements StaticVisitor {
+        abstract void visitSurface(int z, int info);
+
+        // called after the statics when the dynamics are visited separately
+        void beginDynamics() {
+        }
+
+        @Override
+        public void visitStatic(long serial, int staticID, int z, int hue) {
+            visitSurface(z, surfaces.getStaticInfo(staticID));
+        }
+    }
+
+    private void visitLocation(Point2D loc, ObjectLister lister, LocationScan scan) {
+        int x = loc.getX(), y = loc.getY();
+        if(!SLSurfaces.contains(x, y) || !lister.listsDynamicsSeparately()) {
+            lister.visitStaticsAndDynamicsAtLocation(loc, scan);
+            return;
+        }
+        int end = statics.getEndIndex(x, y);
+        for(int i = statics.getFirstIndex(x, y); i < end; i++) {
+            scan.visitSurface(statics.getZ(i), surfaces.getStaticInfo(statics.getStaticID(i)));
+        }
+        scan.beginDynamics();
+        lister.visitDynamicsAtLocation(loc, scan);
+    }
+
+    // the static loop of getElevatedPointReal, called for each static at the destination
+    private class StepScan extends LocationScan {
+        int currentZ, currZp9, finalZ, edi;
+        boolean staticsAllowWalking;
+
+        void reset(int sourceZ) {
+            currentZ = sourceZ;
+            currZp9 = currentZ + 9;
+            finalZ = -128;
+            edi = -128;
+            staticsAllowWalking = false;
+        }
+
+        @Override
+        void visitSurface(int z, int info) {
+            boolean isStair = (info & SLSurfaces.INFO_STAIR) != 0;
+            boolean isSurface = (info & SLSurfaces.INFO_SURFACE) != 0;
+            boolean isImpassable = (info & SLSurfaces.INFO_IMPASSABLE) != 0;
+            int eax = z;
             if(eax > currZp9) {
                 // starts above us -> ignore
-                continue;
+                return;
             }
             // is lastStat.blocks: break
             eax = 1;
-            int ecx = tile.height;
+            int ecx = info & SLSurfaces.INFO_HEIGHT;
             if(ecx != 0) {
                 eax = ecx;
             }
-            int ebx = stat.getLocation().getZ();
+            int ebx = z;
             int edx = eax + ebx;
             if(edx > edi) {
-                if(tile.isStair()) {
+                if(isStair) {
                     // 40627B
                     eax = ebx + ecx;
                     if(currZp9 >= eax) {
@@ -106,10 +200,10 @@ public class SLData {
                         edi = edx;
                         staticsAllowWalking = true;
                         finalZ = ebx;
-                        continue;
+                        return;
                     }
                 }
-                if(tile.isSurface()) {
+                if(isSurface) {
                     // 406284
                     eax = ebx + ecx;
                     if(currentZ >= eax) {
@@ -117,68 +211,37 @@ public class SLData {
                         edi = edx;
                         staticsAllowWalking = true;
                         finalZ = ebx;
-                        continue;
+                        return;
                     }
                 }
-                if(tile.isImpassable()) {
+                if(isImpassable) {
                     staticsAllowWalking = false;
                     edi = edx;
-                    continue;
+                    return;
                 }
                 eax = currentZ;
                 eax++;
                 if(eax >= edx) {
-                    continue;
+                    return;
                 }
                 eax = currZp9;
                 eax += 3;
                 if(eax < edx) {
-                    continue;
+                    return;
                 }
                 staticsAllowWalking = false;
                 edi = edx;
-                continue;
+                return;
             } else {
                 if(edx != edi) {
-                    continue;
+                    return;
                 } else {
-                    if(tile.isImpassable()) {
+                    if(isImpassable) {
                         staticsAllowWalking = false;
                     }
                 }
             }
         }
-        if(edi > -128) {
-            // there are statics in our way
-            if(staticsAllowWalking) {
-                return new Point3D(dest, finalZ);
-            } else {
-                return null;
-            }
-        }
-
-        // statics are ok, need to check land
-
-        // maybe todo: if lastStat.blocks: return false;
-
-        LandTile tile = tiles.getLandTile(map.getTextureID(dest));
-        if(tile.isImpassable()) {
-            return null;
-        }
-
-        finalZ = map.getElevation(dest);
-
-        int resX = dest.getX();
-        int resY = dest.getY();
-        int resZ = finalZ;
-
-        // blacklist because of map errors where players can escape the test area
-        if((resX == 432 && (resY == 724 || resY == 723 || resY == 722) && resZ == -15) ||
-            (resX == 334 && resY == 707)) {
-            return null;
-        }
-
-        return new Point3D(resX, resY, resZ);
     }
 
     // my own attempt before reverse engineering, but it wasn't behaving correctly
@@ -381,26 +444,56 @@ public class SLData {
         }
 
         List<Point3D> path = getDirectPath(src, dest);
+        SightScan scan = sightScans.get();
         for(Point3D point : path) {
-            for(SLStatic obj : lister.getStaticsAndDynamicsAtLocation(point)) {
-                StaticTile stat = tiles.getStaticTile(obj.getStaticID());
-                int lowerZ = obj.getLocation().getZ();
-                int upperZ = lowerZ + stat.height;
-                if(lowerZ <= point.getZ() && upperZ >= point.getZ()) {
-                    // there's a static that potentially blocks the way.
-                    if(!stat.isSurface()) {
-                        return false;
-                    } else {
-                        // a surface only blocks if it is between on Z
-                        int surfZ = obj.getLocation().getZ();
-                        if((src.getZ() < surfZ && dest.getZ() >= surfZ) || (dest.getZ() < surfZ && src.getZ() >= surfZ)) {
-                            return false;
-                        }
+            scan.reset(src.getZ(), dest.getZ(), point.getZ());
+            visitLocation(point, lister, scan);
+            if(scan.blocked) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // checks whether a static on a point of the line of sight blocks it.
+    // statics are checked at all Z, items only if they are exactly on the point
+    private class SightScan extends LocationScan {
+        int srcZ, destZ, pointZ;
+        boolean blocked, dynamics;
+
+        void reset(int srcZ, int destZ, int pointZ) {
+            this.srcZ = srcZ;
+            this.destZ = destZ;
+            this.pointZ = pointZ;
+            this.blocked = false;
+            this.dynamics = false;
+        }
+
+        @Override
+        void beginDynamics() {
+            dynamics = true;
+        }
+
+        @Override
+        void visitSurface(int z, int info) {
+            if(blocked || (dynamics && z != pointZ)) {
+                return;
+            }
+            int lowerZ = z;
+            int upperZ = lowerZ + (info & SLSurfaces.INFO_HEIGHT);
+            if(lowerZ <= pointZ && upperZ >= pointZ) {
+                // there's a static that potentially blocks the way.
+                if((info & SLSurfaces.INFO_SURFACE) == 0) {
+                    blocked = true;
+                } else {
+                    // a surface only blocks if it is between on Z
+                    int surfZ = z;
+                    if((srcZ < surfZ && destZ >= surfZ) || (destZ < surfZ && srcZ >= surfZ)) {
+                        blocked = true;
                     }
                 }
             }
         }
-        return true;
     }
 
     public String getDataPath() {
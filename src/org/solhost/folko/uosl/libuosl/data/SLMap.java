@@ -22,65 +22,81 @@ import java.io.IOException;
 
 import org.solhost.folko.uosl.libuosl.types.Point2D;
 
+// the map is decoded once into arrays indexed by x * MAP_HEIGHT + y,
+// they are never written afterwards so reading doesn't need any locking
 public class SLMap {
     public final static int MAP_WIDTH = 1024;
     public final static int MAP_HEIGHT = 1024;
-    private final SLDataFile mapFile;
-
-    private class Tile {
-        int textureID;
-        byte elevation;
-    }
+    private final short[] textureIDs;
+    private final byte[] elevations;
+    private final byte[] averageElevations;
+    private final int[] cellColors;
 
     public SLMap(String map0Path) throws IOException {
-        mapFile = new SLDataFile(map0Path, true);
-    }
+        SLDataFile mapFile = new SLDataFile(map0Path, true);
+        int cellCount = (MAP_WIDTH / 8) * (MAP_HEIGHT / 8);
 
-    private synchronized Tile readTile(Point2D pos) {
-        Tile res = new Tile();
-        int cell = pos.getCellIndex();
-        int tile = pos.getTileIndex();
-        int offset = cell * 196 + 4 + tile * 3;
+        textureIDs = new short[MAP_WIDTH * MAP_HEIGHT];
+        elevations = new byte[MAP_WIDTH * MAP_HEIGHT];
+        cellColors = new int[cellCount];
+        mapFile.seek(0);
+        for(int cell = 0; cell < cellCount; cell++) {
+            cellColors[cell] = mapFile.readSDWord();
+            for(int tile = 0; tile < 64; tile++) {
+                // same layout as Point2D.fromCell
+                int x = (cell / (MAP_HEIGHT / 8)) * 8 + tile % 8;
+                int y = (cell % (MAP_HEIGHT / 8)) * 8 + tile / 8;
+                int index = index(x, y);
+                textureIDs[index] = (short) mapFile.readUWord();
+                elevations[index] = mapFile.readSByte();
+            }
+        }
 
-        mapFile.seek(offset);
-        res.textureID = mapFile.readUWord();
-        res.elevation = mapFile.readSByte();
+        averageElevations = new byte[MAP_WIDTH * MAP_HEIGHT];
+        for(int x = 0; x < MAP_WIDTH; x++) {
+            for(int y = 0; y < MAP_HEIGHT; y++) {
+                averageElevations[index(x, y)] = computeElevation(x, y);
+            }
+        }
+    }
 
-        return res;
+    private static int index(int x, int y) {
+        return x * MAP_HEIGHT + y;
+    }
+
+    private static boolean isValid(int x, int y) {
+        return x >= 0 && x < MAP_WIDTH && y >= 0 && y < MAP_HEIGHT;
     }
 
     public long getColor(int cellID) {
-        int offset = cellID * 196;
-        mapFile.seek(offset);
-        return mapFile.readUDWord();
+        return cellColors[cellID];
     }
 
     // get the actual height as specified in the map file
     public byte getTileElevation(int x, int y) {
-        if(x < 0 || x >= 1024 || y < 0 || y >= 1024) {
+        if(!isValid(x, y)) {
             return 0;
         }
-        Tile tile = readTile(new Point2D(x, y));
-        return tile.elevation;
+        return elevations[index(x, y)];
     }
 
     // get the average elevation based on the surrounding
     public byte getElevation(int x, int y) {
-        if(x < 0 || x >= 1024 || y < 0 || y >= 1024) {
+        if(!isValid(x, y)) {
             return 0;
         }
-        return getElevation(new Point2D(x, y));
+        return averageElevations[index(x, y)];
     }
 
     // get the average elevation based on the surrounding
     public byte getElevation(Point2D pos) {
-        Tile tile = readTile(pos);
+        return getElevation(pos.getX(), pos.getY());
+    }
 
+    private byte computeElevation(int x, int y) {
         // need to check surrounding terrain because a slope has different altitudes
         // inside the tile
-        int x = pos.getX();
-        int y = pos.getY();
-        int top = tile.elevation;
+        int top = getTileElevation(x, y);
         int right = getTileElevation(x + 1,  y);
         int bottom = getTileElevation(x + 1, y + 1);
         int left = getTileElevation(x, y + 1);
@@ -93,8 +109,14 @@ public class SLMap {
         }
     }
 
+    public int getTextureID(int x, int y) {
+        if(!isValid(x, y)) {
+            return 0;
+        }
+        return textureIDs[index(x, y)] & 0xFFFF;
+    }
+
     public int getTextureID(Point2D pos) {
-        Tile tile = readTile(pos);
-        return tile.textureID;
+        return getTextureID(pos.getX(), pos.getY());
     }
 }
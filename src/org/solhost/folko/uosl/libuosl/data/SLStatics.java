@@ -20,8 +20,8 @@ package org.solhost.folko.uosl.libuosl.data;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -29,64 +29,247 @@ import org.solhost.folko.uosl.libuosl.types.Point2D;
 import org.solhost.folko.uosl.libuosl.types.Point3D;
 import org.solhost.folko.uosl.libuosl.util.ObjectLister;
 
+// the statics are decoded once into arrays that are sorted by tile, keeping the file
+// order inside a tile. The statics of a tile are at the indices from getFirstIndex
+// to getEndIndex - 1. SLStatic objects are only created for callers that need them.
+// Nothing is written after loading except for the SLStatic cache, so no locking needed
 public class SLStatics implements ObjectLister {
-    private final SLDataFile staticsFile, staticsIndex;
+    private static final int WIDTH = SLMap.MAP_WIDTH;
+    private static final int HEIGHT = SLMap.MAP_HEIGHT;
+
+    private final int[] tileStart;
+    private final int[] serials;
+    private final short[] staticIDs;
+    private final byte[] zs;
+    private final short[] hues;
+    private final SLStatic[] objects;
+    private final int[] sortedSerials, serialIndices; // serial -> index, sorted by serial
 
     public SLStatics(String staticsPath, String staIdxPath) throws IOException {
-        staticsFile = new SLDataFile(staticsPath, true);
-        staticsIndex = new SLDataFile(staIdxPath, true);
+        SLDataFile staticsFile = new SLDataFile(staticsPath, true);
+        SLDataFile staticsIndex = new SLDataFile(staIdxPath, true);
+        int cellCount = (WIDTH / 8) * (HEIGHT / 8);
+
+        // first pass: count statics per tile
+        tileStart = new int[WIDTH * HEIGHT + 1];
+        for(int cell = 0; cell < cellCount; cell++) {
+            staticsIndex.seek(cell * 12);
+            long staticsOffset = staticsIndex.readUDWord();
+            long staticsCount = staticsIndex.readUDWord() / 11;
+            if(staticsOffset == -1) { // no statics
+                continue;
+            }
+            for(int i = 0; i < staticsCount; i++) {
+                staticsFile.seek((int) staticsOffset + i * 11 + 6);
+                byte xOffset = staticsFile.readSByte();
+                byte yOffset = staticsFile.readSByte();
+                tileStart[tileIndex(cell, xOffset, yOffset) + 1]++;
+            }
+        }
+        for(int i = 1; i < tileStart.length; i++) {
+            tileStart[i] += tileStart[i - 1];
+        }
+
+        // second pass: decode
+        int count = tileStart[WIDTH * HEIGHT];
+        serials = new int[count];
+        staticIDs = new short[count];
+        zs = new byte[count];
+        hues = new short[count];
+        objects = new SLStatic[count];
+        int[] filled = new int[WIDTH * HEIGHT];
+        for(int cell = 0; cell < cellCount; cell++) {
+            staticsIndex.seek(cell * 12);
+            long staticsOffset = staticsIndex.readUDWord();
+            long staticsCount = staticsIndex.readUDWord() / 11;
+            if(staticsOffset == -1) {
+                continue;
+            }
+            staticsFile.seek((int) staticsOffset);
+            for(int i = 0; i < staticsCount; i++) {
+                int serial = staticsFile.readSDWord();
+                int staticID = staticsFile.readUWord();
+                byte xOffset = staticsFile.readSByte();
+                byte yOffset = staticsFile.readSByte();
+                byte z = staticsFile.readSByte();
+                int hue = staticsFile.readUWord();
+
+                int tile = tileIndex(cell, xOffset, yOffset);
+                int index = tileStart[tile] + filled[tile]++;
+                serials[index] = serial;
+                staticIDs[index] = (short) staticID;
+                zs[index] = z;
+                hues[index] = (short) hue;
+            }
+        }
+
+        // sort (serial, index) pairs so that serials can be found by binary search
+        long[] pairs = new long[count];
+        for(int i = 0; i < count; i++) {
+            pairs[i] = ((long) serials[i] << 32) | i;
+        }
+        Arrays.sort(pairs);
+        sortedSerials = new int[count];
+        serialIndices = new int[count];
+        for(int i = 0; i < count; i++) {
+            sortedSerials[i] = (int) (pairs[i] >> 32);
+            serialIndices[i] = (int) pairs[i];
+        }
+    }
+
+    // same layout as Point2D.fromCell
+    private static int tileIndex(int cell, int xOffset, int yOffset) {
+        int x = (cell / (HEIGHT / 8)) * 8 + xOffset;
+        int y = (cell % (HEIGHT / 8)) * 8 + yOffset;
+        return x * HEIGHT + y;
+    }
+
+    private static boolean isValid(int x, int y) {
+        return x >= 0 && x < WIDTH && y >= 0 && y < HEIGHT;
+    }
+
+    public int getFirstIndex(int x, int y) {
+        if(!isValid(x, y)) {
+            return 0;
+        }
+        return tileStart[x * HEIGHT + y];
+    }
+
+    public int getEndIndex(int x, int y) {
+        if(!isValid(x, y)) {
+            return 0;
+        }
+        return tileStart[x * HEIGHT + y + 1];
+    }
+
+    public int getCount() {
+        return serials.length;
+    }
+
+    public long getSerial(int index) {
+        // sign extension like SLDataFile.readUDWord
+        return serials[index];
+    }
+
+    public int getStaticID(int index) {
+        return staticIDs[index] & 0xFFFF;
+    }
+
+    public int getZ(int index) {
+        return zs[index];
     }
 
-    private synchronized List<SLStatic> getStatics(int cell) {
-        List<SLStatic> res = new LinkedList<SLStatic>();
-        int idxOffset = cell * 12;
-        staticsIndex.seek(idxOffset);
-        long staticsOffset = staticsIndex.readUDWord();
-        long staticsCount = staticsIndex.readUDWord() / 11;
+    public int getHue(int index) {
+        return hues[index] & 0xFFFF;
+    }
 
-        if(staticsOffset == -1) { // no statics
-            return res;
+    // the tile is searched in the offset table because only the index is stored
+    public Point3D getLocation(int index) {
+        int lower = 0, upper = WIDTH * HEIGHT - 1;
+        while(lower < upper) {
+            // find last tile whose start is <= index
+            int mid = (lower + upper + 1) >>> 1;
+            if(tileStart[mid] <= index) {
+                lower = mid;
+            } else {
+                upper = mid - 1;
+            }
         }
+        return new Point3D(lower / HEIGHT, lower % HEIGHT, getZ(index));
+    }
 
-        staticsFile.seek((int) staticsOffset);
+    private SLStatic createStatic(int index, Point3D location) {
+        SLStatic res = new SLStatic(getSerial(index), getStaticID(index), location, getHue(index));
+        objects[index] = res;
+        return res;
+    }
 
-        for(int i = 0; i < staticsCount; i++) {
-            long serial = staticsFile.readUDWord();
-            int staticID = staticsFile.readUWord();
-            byte xOffset = staticsFile.readSByte();
-            byte yOffset = staticsFile.readSByte();
-            byte z = staticsFile.readSByte();
-            int hue = staticsFile.readUWord();
+    private SLStatic getStatic(int index, int x, int y) {
+        SLStatic res = objects[index];
+        if(res == null) {
+            res = createStatic(index, new Point3D(x, y, getZ(index)));
+        }
+        return res;
+    }
 
-            Point3D location = new Point3D(Point2D.fromCell(cell, xOffset, yOffset), z);
-            SLStatic sta = new SLStatic(serial, staticID, location, hue);
-            res.add(sta);
+    public SLStatic getStatic(int index) {
+        SLStatic res = objects[index];
+        if(res == null) {
+            res = createStatic(index, getLocation(index));
         }
         return res;
     }
 
-    public synchronized List<SLStatic> getStatics(Point2D pos) {
-        List<SLStatic> res = new ArrayList<SLStatic>(10);
-        for(SLStatic stat : getStatics(pos.getCellIndex())) {
-            if(stat.getLocation().getX() == pos.getX() && stat.getLocation().getY() == pos.getY()) {
-                res.add(stat);
-            }
+    public List<SLStatic> getStatics(Point2D pos) {
+        int x = pos.getX(), y = pos.getY();
+        int first = getFirstIndex(x, y), end = getEndIndex(x, y);
+        List<SLStatic> res = new ArrayList<SLStatic>(end - first);
+        for(int i = first; i < end; i++) {
+            res.add(getStatic(i, x, y));
         }
         return res;
     }
 
+    // returns null if there is no static with that serial.
+    // if serials appear more than once, the last one in tile order is used like in getAllStatics
+    public SLStatic findStatic(long serial) {
+        if(serial < Integer.MIN_VALUE || serial > Integer.MAX_VALUE) {
+            return null;
+        }
+        int pos = Arrays.binarySearch(sortedSerials, (int) serial);
+        if(pos < 0) {
+            return null;
+        }
+        while(pos + 1 < sortedSerials.length && sortedSerials[pos + 1] == (int) serial) {
+            pos++;
+        }
+        return getStatic(serialIndices[pos]);
+    }
+
+    // highest serial of all statics, -1 if there are none
+    public long getHighestSerial() {
+        if(sortedSerials.length == 0) {
+            return -1;
+        }
+        return sortedSerials[sortedSerials.length - 1];
+    }
+
     public Map<Long, SLStatic> getAllStatics() {
         Map<Long, SLStatic> res = new HashMap<Long, SLStatic>();
-        for(int cell = 0; cell < 16384; cell++) {
-            for(SLStatic stat : getStatics(cell)) {
-                res.put(stat.getSerial(), stat);
+        for(int x = 0; x < WIDTH; x++) {
+            for(int y = 0; y < HEIGHT; y++) {
+                int end = getEndIndex(x, y);
+                for(int i = getFirstIndex(x, y); i < end; i++) {
+                    SLStatic stat = getStatic(i, x, y);
+                    res.put(stat.getSerial(), stat);
+                }
             }
         }
         return res;
     }
 
+    // like getStatics(pos), but without creating objects for the entries
+    public void visitStatics(Point2D pos, StaticVisitor visitor) {
+        int x = pos.getX(), y = pos.getY();
+        int end = getEndIndex(x, y);
+        for(int i = getFirstIndex(x, y); i < end; i++) {
+            visitor.visitStatic(getSerial(i), getStaticID(i), getZ(i), getHue(i));
+        }
+    }
+
     @Override
     public List<SLStatic> getStaticsAndDynamicsAtLocation(Point2D loc) {
         return getStatics(loc);
     }
+
+    @Override
+    public void visitStaticsAndDynamicsAtLocation(Point2D loc, StaticVisitor visitor) {
+        visitStatics(loc, visitor);
+    }
+
+    @Override
+    public boolean listsDynamicsSeparately() {
+        // there are no dynamics in here
+        return true;
+    }
 }
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.libuosl.data;
+
+import org.solhost.folko.uosl.libuosl.data.SLTiles.StaticTile;
+
+// precomputed tile properties that the move check needs, built once from MAP0
+// and TILEDATA so that checking a step doesn't need to decode the tile data.
+// immutable after construction, so no locking needed
+class SLSurfaces {
+    public static final int INFO_HEIGHT      = 0x0000FFFF;
+    public static final int INFO_IMPASSABLE  = 0x00010000;
+    public static final int INFO_SURFACE     = 0x00020000;
+    public static final int INFO_STAIR       = 0x00040000;
+
+    private static final int WIDTH = SLMap.MAP_WIDTH;
+    private static final int HEIGHT = SLMap.MAP_HEIGHT;
+
+    private final SLTiles tiles;
+    private final int[] staticInfo;     // height and flags by static ID
+    private final boolean[] landImpassable;
+
+    public SLSurfaces(SLMap map, SLTiles tiles) {
+        this.tiles = tiles;
+
+        staticInfo = new int[SLTiles.NUM_STATICS];
+        for(int id = 0; id < SLTiles.NUM_STATICS; id++) {
+            staticInfo[id] = computeInfo(tiles.getStaticTile(id));
+        }
+
+        boolean[] textureImpassable = new boolean[SLTiles.NUM_TEXTURES];
+        for(int id = 0; id < SLTiles.NUM_TEXTURES; id++) {
+            textureImpassable[id] = tiles.getLandTile(id).isImpassable();
+        }
+
+        landImpassable = new boolean[WIDTH * HEIGHT];
+        for(int x = 0; x < WIDTH; x++) {
+            for(int y = 0; y < HEIGHT; y++) {
+                int textureID = map.getTextureID(x, y);
+                if(textureID < SLTiles.NUM_TEXTURES) {
+                    landImpassable[index(x, y)] = textureImpassable[textureID];
+                } else if(textureID == SLTiles.NUM_TEXTURES) {
+                    landImpassable[index(x, y)] = tiles.getLandTile(textureID).isImpassable();
+                } else {
+                    // invalid texture, don't let anyone walk there
+                    landImpassable[index(x, y)] = true;
+                }
+            }
+        }
+    }
+
+    private static int computeInfo(StaticTile tile) {
+        int info = tile.height & INFO_HEIGHT;
+        if(tile.isImpassable()) {
+            info |= INFO_IMPASSABLE;
+        }
+        if(tile.isSurface()) {
+            info |= INFO_SURFACE;
+        }
+        if(tile.isStair()) {
+            info |= INFO_STAIR;
+        }
+        return info;
+    }
+
+    private static int index(int x, int y) {
+        return x * HEIGHT + y;
+    }
+
+    public static boolean contains(int x, int y) {
+        return x >= 0 && x < WIDTH && y >= 0 && y < HEIGHT;
+    }
+
+    public int getStaticInfo(int staticID) {
+        if(staticID >= 0 && staticID < staticInfo.length) {
+            return staticInfo[staticID];
+        }
+        return computeInfo(tiles.getStaticTile(staticID));
+    }
+
+    public boolean isLandImpassable(int x, int y) {
+        return landImpassable[index(x, y)];
+    }
+}
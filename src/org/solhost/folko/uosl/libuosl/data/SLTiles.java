@@ -20,18 +20,30 @@ package org.solhost.folko.uosl.libuosl.data;
 
 import java.io.IOException;
 
+// all tiles are loaded once into immutable records that are shared by all
+// callers, so looking a tile up doesn't need any locking or allocation
 public class SLTiles {
     public static final int NUM_TEXTURES = 16384;
     public static final int NUM_STATICS = 16384;
     private static final int STATIC_START = 428032;
     private final SLDataFile tileDataFile;
+    private final LandTile[] landTiles;
+    private final StaticTile[] staticTiles;
+    private final long[] staticFlags;
+    private final short[] staticHeights;
 
     public class LandTile {
         public static final long FLAG_IMPASSABLE    = 0x00000040;
 
-        public long flags;
-        public int textureID;
-        public String name;
+        public final long flags;
+        public final int textureID;
+        public final String name;
+
+        private LandTile(SLDataFile file) {
+            flags = file.readUDWord();
+            textureID = file.readUWord();
+            name = file.readString();
+        }
 
         public boolean isImpassable() {
             return (flags & FLAG_IMPASSABLE) != 0;
@@ -71,13 +83,28 @@ public class SLTiles {
         public static final short LAYER_HAIR        = 0x0B;
         public static final short LAYER_SKIRT       = 0x0C;
 
-        public long flags;
-        public short weight;
-        public short layer;
-        public short height;
-        public int animationID;
-        public String name;
-        public int unknown1, unknown2, price;
+        public final long flags;
+        public final short weight;
+        public final short layer;
+        public final short height;
+        public final int animationID;
+        public final String name;
+        public final int unknown1, unknown2, price;
+
+        private StaticTile(SLDataFile file) {
+            flags = file.readUDWord();
+            weight = file.readUByte();
+            layer = file.readUByte();
+            unknown1 = file.readUWord();
+            file.readUByte(); // unused
+            file.readUByte(); // unused
+            animationID = file.readUWord();
+            unknown2 = file.readUByte();
+            file.readUByte(); // unused
+            price = file.readUWord();
+            height = file.readUByte();
+            name = file.readString();
+        }
 
         public boolean isContainer() {
             return (flags & FLAG_CONTAINER) != 0;
@@ -106,46 +133,64 @@ public class SLTiles {
 
     public SLTiles(String tilePath) throws IOException {
         tileDataFile = new SLDataFile(tilePath, true);
-    }
 
-    public synchronized LandTile getLandTile(int textureID) {
-        LandTile res = new LandTile();
-        if(textureID < 0 || textureID > NUM_TEXTURES) {
-            throw new IllegalArgumentException("invalid texture ID: " + textureID);
+        landTiles = new LandTile[NUM_TEXTURES];
+        for(int i = 0; i < NUM_TEXTURES; i++) {
+            landTiles[i] = readLandTile(i);
+        }
+
+        staticTiles = new StaticTile[NUM_STATICS];
+        staticFlags = new long[NUM_STATICS];
+        staticHeights = new short[NUM_STATICS];
+        for(int i = 0; i < NUM_STATICS; i++) {
+            staticTiles[i] = readStaticTile(i);
+            staticFlags[i] = staticTiles[i].flags;
+            staticHeights[i] = staticTiles[i].height;
         }
+    }
+
+    private synchronized LandTile readLandTile(int textureID) {
         int landGroupIndex = textureID / 32;
         int landGroupOffset = textureID % 32;
 
         int offset = landGroupIndex * 836 + 4 + landGroupOffset * 26;
         tileDataFile.seek(offset);
-        res.flags = tileDataFile.readUDWord();
-        res.textureID = tileDataFile.readUWord();
-        res.name = tileDataFile.readString();
-        return res;
+        return new LandTile(tileDataFile);
     }
 
-    public synchronized StaticTile getStaticTile(int staticID) {
-        StaticTile res = new StaticTile();
-        if(staticID < 0 || staticID > NUM_STATICS) {
-            throw new IllegalArgumentException("invalid static ID: " + staticID);
-        }
+    private synchronized StaticTile readStaticTile(int staticID) {
         int staticGroupIndex = staticID / 32;
         int staticGroupOffset = staticID % 32;
         int offset = STATIC_START + staticGroupIndex * 1188 + 4 + staticGroupOffset * 37;
         tileDataFile.seek(offset);
-        res.flags = tileDataFile.readUDWord();
-        res.weight = tileDataFile.readUByte();
-        res.layer = tileDataFile.readUByte();
-        res.unknown1 = tileDataFile.readUWord();
-        tileDataFile.readUByte(); // unused
-        tileDataFile.readUByte(); // unused
-        res.animationID = tileDataFile.readUWord();
-        res.unknown2 = tileDataFile.readUByte();
-        tileDataFile.readUByte(); // unused
-        res.price = tileDataFile.readUWord();
-        res.height = tileDataFile.readUByte();
-        res.name = tileDataFile.readString();
-        return res;
+        return new StaticTile(tileDataFile);
+    }
+
+    public LandTile getLandTile(int textureID) {
+        if(textureID < 0 || textureID > NUM_TEXTURES) {
+            throw new IllegalArgumentException("invalid texture ID: " + textureID);
+        } else if(textureID == NUM_TEXTURES) {
+            // not preloaded, but always accepted
+            return readLandTile(textureID);
+        }
+        return landTiles[textureID];
+    }
+
+    public StaticTile getStaticTile(int staticID) {
+        if(staticID < 0 || staticID > NUM_STATICS) {
+            throw new IllegalArgumentException("invalid static ID: " + staticID);
+        } else if(staticID == NUM_STATICS) {
+            // not preloaded, but always accepted
+            return readStaticTile(staticID);
+        }
+        return staticTiles[staticID];
+    }
+
+    private long getStaticFlags(int staticID) {
+        if(staticID >= 0 && staticID < NUM_STATICS) {
+            return staticFlags[staticID];
+        }
+        return getStaticTile(staticID).flags;
     }
 
     public String getTextureName(int textureID) {
@@ -159,8 +204,10 @@ public class SLTiles {
     }
 
     public int getStaticHeight(int staticID) {
-        StaticTile tile = getStaticTile(staticID);
-        return tile.height;
+        if(staticID >= 0 && staticID < NUM_STATICS) {
+            return staticHeights[staticID];
+        }
+        return getStaticTile(staticID).height;
     }
 
     public short getEquipmentLayer(int staticID) {
@@ -179,17 +226,14 @@ public class SLTiles {
     }
 
     public boolean isContainer(int staticID) {
-        StaticTile tile = getStaticTile(staticID);
-        return (tile.flags & StaticTile.FLAG_CONTAINER) != 0;
+        return (getStaticFlags(staticID) & StaticTile.FLAG_CONTAINER) != 0;
     }
 
     public boolean isStackable(int staticID) {
-        StaticTile tile = getStaticTile(staticID);
-        return (tile.flags & StaticTile.FLAG_STACKABLE) != 0;
+        return (getStaticFlags(staticID) & StaticTile.FLAG_STACKABLE) != 0;
     }
 
     public boolean isWearable(int staticID) {
-        StaticTile tile = getStaticTile(staticID);
-        return (tile.flags & StaticTile.FLAG_EQUIPABLE) != 0;
+        return (getStaticFlags(staticID) & StaticTile.FLAG_EQUIPABLE) != 0;
     }
 }
@@ -24,6 +24,14 @@ public class AttackPacket extends SLPacket {
     public static final short ID = 0x0B;
     private long victimSerial;
 
+    private AttackPacket() {
+    }
+
+    public AttackPacket(long victimSerial) {
+        initWrite(ID, 8);
+        addUDWord(victimSerial);
+    }
+
     public static AttackPacket read(ByteBuffer b, int len) {
         AttackPacket res = new AttackPacket();
         res.victimSerial = readUDWord(b);
@@ -24,8 +24,19 @@ public class DoubleClickPacket extends SLPacket {
     public static final short ID = 0x0C;
     private long serial;
 
+    DoubleClickPacket() {
+    }
+
+    public DoubleClickPacket(long serial) {
+        initWrite(ID, 8);
+        addUDWord(serial);
+    }
+
     public static DoubleClickPacket read(ByteBuffer buffer, int len) {
-        DoubleClickPacket res = new DoubleClickPacket();
+        return read(buffer, new DoubleClickPacket());
+    }
+
+    static DoubleClickPacket read(ByteBuffer buffer, DoubleClickPacket res) {
         res.serial = readUDWord(buffer);
         return res;
     }
@@ -27,17 +27,23 @@ import org.solhost.folko.uosl.libuosl.network.SendableMobile;
 
 public class EquipPacket extends SLPacket {
     public static final short ID = 0x4D;
+    public static final int LENGTH = 0x12;
     private SendableMobile mobile;
     private SendableItem item;
 
     public EquipPacket(SendableMobile mob, SendableItem item) {
-        initWrite(ID, 0x12);
-        addUDWord(item.getSerial());
-        addUWord(item.getGraphic());
-        addUByte((short) 0); // unknown
-        addUByte(item.getLayer());
-        addUDWord(mob.getSerial());
-        addUWord(item.getHue());
+        write(initWrite(LENGTH), mob, item);
+    }
+
+    // encode without creating a packet, dest needs LENGTH bytes remaining
+    public static void write(ByteBuffer dest, SendableMobile mob, SendableItem item) {
+        putHeader(dest, ID, LENGTH);
+        dest.putInt((int) item.getSerial());
+        dest.putShort((short) item.getGraphic());
+        dest.put((byte) 0); // unknown
+        dest.put((byte) item.getLayer());
+        dest.putInt((int) mob.getSerial());
+        dest.putShort((short) item.getHue());
     }
 
     private EquipPacket() {
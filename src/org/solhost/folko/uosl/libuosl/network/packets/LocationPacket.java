@@ -27,18 +27,25 @@ import org.solhost.folko.uosl.libuosl.types.Point3D;
 
 public class LocationPacket extends SLPacket {
     public static final short ID = 0x3E;
+    public static final int LENGTH = 0x13;
     private SendableMobile mobile;
 
     public LocationPacket(SendableMobile player) {
-        initWrite(ID, 0x13);
-        addUDWord(player.getSerial());
-        addUWord(player.getGraphic());
-        addUByte((short) 0); // unused
-        addUWord(player.getLocation().getX());
-        addUWord(player.getLocation().getY());
-        addUWord(0); // area
-        addUByte(player.getFacing().toByte());
-        addSByte((byte) player.getLocation().getZ());
+        write(initWrite(LENGTH), player);
+    }
+
+    // encode without creating a packet, dest needs LENGTH bytes remaining
+    public static void write(ByteBuffer dest, SendableMobile player) {
+        Point3D loc = player.getLocation();
+        putHeader(dest, ID, LENGTH);
+        dest.putInt((int) player.getSerial());
+        dest.putShort((short) player.getGraphic());
+        dest.put((byte) 0); // unused
+        dest.putShort((short) loc.getX());
+        dest.putShort((short) loc.getY());
+        dest.putShort((short) 0); // area
+        dest.put((byte) player.getFacing().toByte());
+        dest.put((byte) loc.getZ());
     }
 
     private LocationPacket() {
@@ -28,7 +28,7 @@ public class MoveRequestPacket extends SLPacket {
     private short sequence;
     private boolean running;
 
-    private MoveRequestPacket() {
+    MoveRequestPacket() {
     }
 
     public MoveRequestPacket(Direction dir, short sequence, boolean running) {
@@ -42,7 +42,10 @@ public class MoveRequestPacket extends SLPacket {
     }
 
     public static MoveRequestPacket read(ByteBuffer buffer, int len) {
-        MoveRequestPacket res = new MoveRequestPacket();
+        return read(buffer, new MoveRequestPacket());
+    }
+
+    static MoveRequestPacket read(ByteBuffer buffer, MoveRequestPacket res) {
         short rawDirection = readUByte(buffer);
         res.direction = Direction.parse((short) (rawDirection & ~0x80));
         res.running = (rawDirection & 0x80) != 0;
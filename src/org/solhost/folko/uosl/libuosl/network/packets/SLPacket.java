@@ -21,11 +21,47 @@ package org.solhost.folko.uosl.libuosl.network.packets;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
 public abstract class SLPacket {
+    // decodes the data of a packet whose header was already read
+    public interface Decoder {
+        public SLPacket read(ByteBuffer buffer, int length);
+    }
+
     private static final short SL_PACKET_MAGIC = 0xFE;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final Decoder[] DECODERS = new Decoder[256];
     private ByteBuffer sendBuffer;
 
+    static {
+        DECODERS[LoginPacket.ID]            = LoginPacket::read;
+        DECODERS[LoginErrorPacket.ID]       = LoginErrorPacket::read;
+        DECODERS[InitPlayerPacket.ID]       = InitPlayerPacket::read;
+        DECODERS[StatsUpdatePacket.ID]      = StatsUpdatePacket::read;
+        DECODERS[LocationPacket.ID]         = LocationPacket::read;
+        DECODERS[EquipPacket.ID]            = EquipPacket::read;
+        DECODERS[GlobalLightLevelPacket.ID] = GlobalLightLevelPacket::read;
+        DECODERS[SendTextPacket.ID]         = SendTextPacket::read;
+        DECODERS[SendObjectPacket.ID]       = SendObjectPacket::read;
+        DECODERS[RemoveObjectPacket.ID]     = RemoveObjectPacket::read;
+        DECODERS[AllowMovePacket.ID]        = AllowMovePacket::read;
+        DECODERS[DenyMovePacket.ID]         = DenyMovePacket::read;
+        DECODERS[DragPacket.ID]             = DragPacket::read;
+        DECODERS[DropPacket.ID]             = DropPacket::read;
+        DECODERS[SingleClickPacket.ID]      = SingleClickPacket::read;
+        DECODERS[ActionPacket.ID]           = ActionPacket::read;
+        DECODERS[EquipReqPacket.ID]         = EquipReqPacket::read;
+        DECODERS[MoveRequestPacket.ID]      = MoveRequestPacket::read;
+        DECODERS[DoubleClickPacket.ID]      = DoubleClickPacket::read;
+        DECODERS[SpeechRequestPacket.ID]    = SpeechRequestPacket::read;
+        DECODERS[RequestPacket.ID]          = RequestPacket::read;
+        DECODERS[ShopPacket.ID]             = ShopPacket::read;
+        DECODERS[AttackPacket.ID]           = AttackPacket::read;
+        DECODERS[BoardAddPostPacket.ID]     = BoardAddPostPacket::read;
+        DECODERS[GroupPacket.ID]            = GroupPacket::read;
+    }
+
     protected void initWrite(short id, int len) {
         sendBuffer = ByteBuffer.allocate(len);
         sendBuffer.order(ByteOrder.BIG_ENDIAN);
@@ -34,8 +70,37 @@ public abstract class SLPacket {
         addUWord(len);
     }
 
+    // for packets that are encoded by a static write method: the caller fills the buffer
+    protected ByteBuffer initWrite(int len) {
+        sendBuffer = ByteBuffer.allocate(len);
+        sendBuffer.order(ByteOrder.BIG_ENDIAN);
+        return sendBuffer;
+    }
+
     public abstract short getID();
 
+    // encoded size, only valid for packets that were created for sending
+    public int getLength() {
+        return sendBuffer.capacity();
+    }
+
+    // the put methods are used by static encoders that write straight into a send buffer
+    protected static void putHeader(ByteBuffer dest, short id, int len) {
+        dest.put((byte) SL_PACKET_MAGIC);
+        dest.put((byte) id);
+        dest.putShort((short) len);
+    }
+
+    protected static void putString(ByteBuffer dest, String s, int len) {
+        int strLen = (s != null) ? Math.min(s.length(), len) : 0;
+        for(int i = 0; i < strLen; i++) {
+            dest.put((byte) s.charAt(i));
+        }
+        for(int i = strLen; i < len; i++) {
+            dest.put((byte) 0);
+        }
+    }
+
     public void addSByte(byte b) {
         sendBuffer.put(b);
     }
@@ -100,6 +165,17 @@ public abstract class SLPacket {
     }
 
     public static String readString(ByteBuffer b, int len) {
+        if(b.hasArray() && b.remaining() >= len) {
+            // fast path for plain ASCII: find the end and let String copy the bytes in one go
+            byte[] array = b.array();
+            int start = b.arrayOffset() + b.position();
+            int strLen = asciiLength(array, start, start + len);
+            if(strLen >= 0) {
+                b.position(b.position() + len);
+                return new String(array, start, strLen, StandardCharsets.US_ASCII);
+            }
+        }
+
         StringBuilder res = new StringBuilder(len);
         boolean gotNull = false;
         for(int i = 0; i < len; i++) {
@@ -114,6 +190,17 @@ public abstract class SLPacket {
     }
 
     public static String readString(ByteBuffer b) {
+        if(b.hasArray()) {
+            byte[] array = b.array();
+            int start = b.arrayOffset() + b.position();
+            int strLen = asciiLength(array, start, start + b.remaining());
+            if(strLen >= 0 && strLen < b.remaining()) {
+                // also skip the terminating null byte
+                b.position(b.position() + strLen + 1);
+                return new String(array, start, strLen, StandardCharsets.US_ASCII);
+            }
+        }
+
         StringBuilder res = new StringBuilder();
         char chr;
         do {
@@ -125,6 +212,18 @@ public abstract class SLPacket {
         return res.toString();
     }
 
+    // length of the null-terminated string in array[from, to), -1 if it has non-ASCII characters
+    private static int asciiLength(byte[] array, int from, int to) {
+        for(int i = from; i < to; i++) {
+            if(array[i] == 0) {
+                return i - from;
+            } else if(array[i] < 0) {
+                return -1;
+            }
+        }
+        return to - from;
+    }
+
     // write packet to buffer
     public void writeTo(ByteBuffer dest) throws IOException {
         sendBuffer.flip();
@@ -135,6 +234,11 @@ public abstract class SLPacket {
     }
 
     public static SLPacket readPacket(ByteBuffer buffer) throws IOException {
+        return readPacket(buffer, null);
+    }
+
+    // if reuse is given, frequent packets are decoded into its instances instead of new ones
+    public static SLPacket readPacket(ByteBuffer buffer, ReusablePackets reuse) throws IOException {
         int gotBytes = buffer.remaining();
         if(gotBytes < 4) {
             // not enough bytes to read packet header
@@ -148,39 +252,35 @@ public abstract class SLPacket {
         }
         short id = readUByte(buffer);
         int length = readUWord(buffer);
+        if(length < 4) {
+            // can't even hold its own header -> need to kick client
+            throw new IOException("invalid packet length: " + length);
+        }
         if(length > gotBytes) {
             // not enough bytes to read entire packet
             return null;
         }
         int dataLength = length - 4;
 
-        switch(id) {
-        case LoginPacket.ID:            return LoginPacket.read(buffer, dataLength);
-        case LoginErrorPacket.ID:       return LoginErrorPacket.read(buffer, dataLength);
-        case InitPlayerPacket.ID:       return InitPlayerPacket.read(buffer, dataLength);
-        case StatsUpdatePacket.ID:      return StatsUpdatePacket.read(buffer, dataLength);
-        case LocationPacket.ID:         return LocationPacket.read(buffer, dataLength);
-        case EquipPacket.ID:            return EquipPacket.read(buffer, dataLength);
-        case GlobalLightLevelPacket.ID: return GlobalLightLevelPacket.read(buffer, dataLength);
-        case SendTextPacket.ID:         return SendTextPacket.read(buffer, dataLength);
-        case SendObjectPacket.ID:       return SendObjectPacket.read(buffer, dataLength);
-        case RemoveObjectPacket.ID:     return RemoveObjectPacket.read(buffer, dataLength);
-        case AllowMovePacket.ID:        return AllowMovePacket.read(buffer, dataLength);
-        case DenyMovePacket.ID:         return DenyMovePacket.read(buffer, dataLength);
-        case DragPacket.ID:             return DragPacket.read(buffer, dataLength);
-        case DropPacket.ID:             return DropPacket.read(buffer, dataLength);
-        case SingleClickPacket.ID:      return SingleClickPacket.read(buffer, dataLength);
-        case ActionPacket.ID:           return ActionPacket.read(buffer, dataLength);
-        case EquipReqPacket.ID:         return EquipReqPacket.read(buffer, dataLength);
-        case MoveRequestPacket.ID:      return MoveRequestPacket.read(buffer, dataLength);
-        case DoubleClickPacket.ID:      return DoubleClickPacket.read(buffer, dataLength);
-        case SpeechRequestPacket.ID:    return SpeechRequestPacket.read(buffer, dataLength);
-        case RequestPacket.ID:          return RequestPacket.read(buffer, dataLength);
-        case ShopPacket.ID:             return ShopPacket.read(buffer, dataLength);
-        case AttackPacket.ID:           return AttackPacket.read(buffer, dataLength);
-        case BoardAddPostPacket.ID:     return BoardAddPostPacket.read(buffer, dataLength);
-        case GroupPacket.ID:            return GroupPacket.read(buffer, dataLength);
-        default:                        return UnknownPacket.read(buffer, id, dataLength);
+        try {
+            if(reuse != null) {
+                switch(id) {
+                case MoveRequestPacket.ID:  return MoveRequestPacket.read(buffer, reuse.moveRequest);
+                case SingleClickPacket.ID:  return SingleClickPacket.read(buffer, reuse.singleClick);
+                case DoubleClickPacket.ID:  return DoubleClickPacket.read(buffer, reuse.doubleClick);
+                default:                    break;
+                }
+            }
+
+            Decoder decoder = DECODERS[id];
+            if(decoder == null) {
+                return UnknownPacket.read(buffer, id, dataLength);
+            }
+            return decoder.read(buffer, dataLength);
+        } catch(RuntimeException e) {
+            // malformed packet, e.g. too short for its type: kick the client instead of
+            // letting the exception end the network thread
+            throw new IOException(String.format("malformed packet %02X: %s", id, e), e);
         }
     }
 
@@ -190,7 +290,9 @@ public abstract class SLPacket {
         if(sendBuffer != null) {
             builder.append(String.format("Packet %02X -> ", getID()));
             for(int i = 0; i < sendBuffer.capacity(); i++) {
-                builder.append(String.format("%02X", sendBuffer.get(i)));
+                byte b = sendBuffer.get(i);
+                builder.append(HEX_DIGITS[(b >> 4) & 0xF]);
+                builder.append(HEX_DIGITS[b & 0xF]);
             }
         } else {
             builder.append(getClass().getSimpleName());
@@ -29,31 +29,38 @@ import org.solhost.folko.uosl.libuosl.types.Point3D;
 
 public class SendObjectPacket extends SLPacket {
     public static final short ID = 0x35;
+    public static final int LENGTH = 0x15;
     private SendableObject object;
     private int amount;
     private Direction facing;
 
     public SendObjectPacket(SendableObject obj) {
-        initWrite(ID, 0x15);
-        addUDWord(obj.getSerial());
-        addUWord(obj.getGraphic());
-        addUByte((short) 0); // unknown, seems to be added to graphic
+        write(initWrite(LENGTH), obj);
+    }
+
+    // encode without creating a packet, dest needs LENGTH bytes remaining
+    public static void write(ByteBuffer dest, SendableObject obj) {
+        Point3D loc = obj.getLocation();
+        putHeader(dest, ID, LENGTH);
+        dest.putInt((int) obj.getSerial());
+        dest.putShort((short) obj.getGraphic());
+        dest.put((byte) 0); // unknown, seems to be added to graphic
         if(obj instanceof SendableItem) {
-            addUWord(((SendableItem) obj).getAmount());
+            dest.putShort((short) ((SendableItem) obj).getAmount());
         } else {
-            addUWord(0);
+            dest.putShort((short) 0);
         }
-        addUWord(obj.getLocation().getX());
-        addUWord(obj.getLocation().getY());
+        dest.putShort((short) loc.getX());
+        dest.putShort((short) loc.getY());
         if(obj instanceof SendableMobile) {
-            addUByte(((SendableMobile) obj).getFacing().toByte());
+            dest.put((byte) ((SendableMobile) obj).getFacing().toByte());
         } else if(obj instanceof SendableItem){
-            addUByte(((SendableItem) obj).getFacingOverride());
+            dest.put((byte) ((SendableItem) obj).getFacingOverride());
         } else {
-            addUByte((short) 0);
+            dest.put((byte) 0);
         }
-        addSByte((byte) obj.getLocation().getZ());
-        addUWord(obj.getHue());
+        dest.put((byte) loc.getZ());
+        dest.putShort((short) obj.getHue());
     }
 
     private SendObjectPacket() {
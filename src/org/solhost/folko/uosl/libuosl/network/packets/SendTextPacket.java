@@ -39,21 +39,30 @@ public class SendTextPacket extends SLPacket {
 
     // src can be null when MODE_SYSMSG
     public SendTextPacket(SendableObject src, short mode, long color, String text) {
-        initWrite(ID, 46 + text.length());
+        write(initWrite(getLength(text)), src, mode, color, text);
+    }
+
+    public static int getLength(String text) {
+        return 46 + text.length();
+    }
+
+    // encode without creating a packet, dest needs getLength(text) bytes remaining
+    public static void write(ByteBuffer dest, SendableObject src, short mode, long color, String text) {
+        putHeader(dest, ID, getLength(text));
         if(src instanceof SendableObject) {
-            addUDWord(src.getSerial());
+            dest.putInt((int) src.getSerial());
         } else {
-            addUDWord(0xFFFFFFFF);
+            dest.putInt(0xFFFFFFFF);
         }
-        addUWord(0); // unknown
-        addUByte(mode);
-        addUDWord(color);
+        dest.putShort((short) 0); // unknown
+        dest.put((byte) mode);
+        dest.putInt((int) color);
         if(src instanceof SendableObject) {
-            addString(src.getName(), 30);
+            putString(dest, src.getName(), 30);
         } else {
-            addString("SYSTEM", 30);
+            putString(dest, "SYSTEM", 30);
         }
-        addString(text);
+        putString(dest, text, text.length() + 1);
     }
 
     private SendTextPacket() {
@@ -24,8 +24,14 @@ public class SingleClickPacket extends SLPacket {
     public static final short ID = 0x11;
     private long serial;
 
+    SingleClickPacket() {
+    }
+
     public static SingleClickPacket read(ByteBuffer b, int len) {
-        SingleClickPacket res = new SingleClickPacket();
+        return read(b, new SingleClickPacket());
+    }
+
+    static SingleClickPacket read(ByteBuffer b, SingleClickPacket res) {
         res.serial = readUDWord(b);
         return res;
     }
@@ -32,6 +32,16 @@ public class SpeechRequestPacket extends SLPacket {
     private short mode;
     private long color;
 
+    private SpeechRequestPacket() {
+    }
+
+    public SpeechRequestPacket(short mode, long color, String text) {
+        initWrite(ID, 10 + text.length());
+        addUByte(mode);
+        addUDWord(color);
+        addString(text);
+    }
+
     public static SpeechRequestPacket read(ByteBuffer buffer, int len) {
         SpeechRequestPacket res = new SpeechRequestPacket();
         res.mode = readUByte(buffer); // unknown
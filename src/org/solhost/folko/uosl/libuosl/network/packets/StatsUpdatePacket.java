@@ -26,12 +26,17 @@ import org.solhost.folko.uosl.libuosl.types.Attribute;
 
 public class StatsUpdatePacket extends SLPacket {
     public static final short ID = 0x4C;
+    public static final int LENGTH = 0x14;
     private SendableMobile mobile;
 
     public StatsUpdatePacket(SendableMobile mob, boolean relativeHitsOnly) {
-        initWrite(ID, 0x14);
+        write(initWrite(LENGTH), mob, relativeHitsOnly);
+    }
 
-        addUDWord(mob.getSerial());
+    // encode without creating a packet, dest needs LENGTH bytes remaining
+    public static void write(ByteBuffer dest, SendableMobile mob, boolean relativeHitsOnly) {
+        putHeader(dest, ID, LENGTH);
+        dest.putInt((int) mob.getSerial());
 
         int hits = (int) mob.getAttribute(Attribute.HITS),
             maxHits = (int) mob.getAttribute(Attribute.MAX_HITS);
@@ -41,18 +46,18 @@ public class StatsUpdatePacket extends SLPacket {
             maxHits = 100;
         }
 
-        addUWord(maxHits);
-        addUWord(hits);
+        dest.putShort((short) maxHits);
+        dest.putShort((short) hits);
         if(relativeHitsOnly) {
-            addUWord(0);
-            addUWord(0);
-            addUWord(0);
-            addUWord(0);
+            dest.putShort((short) 0);
+            dest.putShort((short) 0);
+            dest.putShort((short) 0);
+            dest.putShort((short) 0);
         } else {
-            addUWord((int) mob.getAttribute(Attribute.MAX_MANA));
-            addUWord((int) mob.getAttribute(Attribute.MANA));
-            addUWord((int) mob.getAttribute(Attribute.MAX_FATIGUE));
-            addUWord((int) mob.getAttribute(Attribute.FATIGUE)); //needs to be > 5 or client won't be able to walk
+            dest.putShort((short) mob.getAttribute(Attribute.MAX_MANA));
+            dest.putShort((short) mob.getAttribute(Attribute.MANA));
+            dest.putShort((short) mob.getAttribute(Attribute.MAX_FATIGUE));
+            dest.putShort((short) mob.getAttribute(Attribute.FATIGUE)); //needs to be > 5 or client won't be able to walk
         }
     }
 
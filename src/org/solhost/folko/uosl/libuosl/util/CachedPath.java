@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.libuosl.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.solhost.folko.uosl.libuosl.types.Direction;
+import org.solhost.folko.uosl.libuosl.types.Point2D;
+import org.solhost.folko.uosl.libuosl.types.Point3D;
+
+// a path found by a Pathfinder that is walked step by step. Used to chase a
+// moving target without searching a new path for each step: the path stays
+// usable as long as the walker is where the path expects it and the target
+// didn't move away from the end of the path
+public class CachedPath {
+    private final List<Direction> steps;
+    private final Point3D dest;
+    private Point3D position;
+    private int next;
+
+    public CachedPath(Pathfinder finder) {
+        if(!finder.hasPath()) {
+            throw new IllegalArgumentException("pathfinder has no path");
+        }
+        // the pathfinder returns a linked list, we need indexed access
+        this.steps = new ArrayList<Direction>(finder.getPath());
+        this.dest = finder.getDest();
+        this.position = finder.getStart();
+        this.next = 0;
+    }
+
+    public boolean canContinue(Point3D from, Point2D target) {
+        if(next >= steps.size() || !from.equals(position)) {
+            return false;
+        }
+        // reaching the end brings us next to the target
+        return target.distanceTo(dest) <= 1;
+    }
+
+    public Direction getNextDirection() {
+        return steps.get(next);
+    }
+
+    // the next step was walked and ended at the given point
+    public void advance(Point3D newPosition) {
+        position = newPosition;
+        next++;
+    }
+
+    public Point3D getDest() {
+        return dest;
+    }
+}
@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.libuosl.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.solhost.folko.uosl.libuosl.data.SLData;
+import org.solhost.folko.uosl.libuosl.data.SLMap;
+import org.solhost.folko.uosl.libuosl.data.SLStatic;
+import org.solhost.folko.uosl.libuosl.data.SLTiles;
+import org.solhost.folko.uosl.libuosl.data.SLTiles.StaticTile;
+import org.solhost.folko.uosl.libuosl.types.Direction;
+import org.solhost.folko.uosl.libuosl.types.Point2D;
+import org.solhost.folko.uosl.libuosl.types.Point3D;
+
+// hierarchical path finding for long distances. The map is split into clusters
+// that are the 8x8 map cells. Where a cluster can be left into a neighbour, there
+// is an entrance, and entrances of the same cluster are connected if a path
+// between them exists. A search on that graph returns waypoints that are at
+// most a cluster apart, the way between them is found by the normal Pathfinder.
+// The graph is built lazily for the clusters that searches touch and kept.
+// It should be built from statics only so that it doesn't become invalid when
+// dynamic objects move, these are then handled when walking between waypoints
+public class ClusterPathfinder {
+    public static final int CLUSTER_SIZE = 8;
+    private static final int CLUSTERS = Point2D.MAP_WIDTH / CLUSTER_SIZE;
+    private static final int LOCAL_ITERATIONS = 200;    // for paths inside a cluster
+    private static final int DIRECT_DISTANCE = 16;      // below that, no waypoints needed
+    private static final int BASE_EXPANSIONS = 256;     // entrance nodes per search...
+    private static final int CLUSTER_EXPANSIONS = 64;   // ...plus this per cluster of distance
+    private static final int MAX_EXPANSIONS = 16384;    // but never more than this
+    private static final int MAX_RUN_DELTA_Z = 4;       // crossings further apart in Z are different entrances
+
+    private final ObjectLister lister;
+    private final Map<Point3D, Node> nodes;
+    private final Map<Integer, List<Node>> entrances;   // cluster -> its entrances
+    private final Map<Integer, List<Crossing>> borders; // border -> crossings in both directions
+
+    private class Node {
+        final Point3D point;
+        final Map<Node, Integer> edges; // to -> steps
+        boolean connected;              // whether edges to the other entrances of the cluster are known
+
+        Node(Point3D point) {
+            this.point = point;
+            this.edges = new LinkedHashMap<Node, Integer>();
+        }
+    }
+
+    // a single step from one cluster into another
+    private class Crossing {
+        final Point3D from, to;
+        final int index; // position along the border
+
+        Crossing(Point3D from, Point3D to, int index) {
+            this.from = from;
+            this.to = to;
+            this.index = index;
+        }
+    }
+
+    private class SearchEntry implements Comparable<SearchEntry> {
+        final Node node;
+        final int priority;
+
+        SearchEntry(Node node, int priority) {
+            this.node = node;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(SearchEntry o) {
+            return priority - o.priority;
+        }
+    }
+
+    public ClusterPathfinder(ObjectLister lister) {
+        this.lister = lister;
+        this.nodes = new HashMap<Point3D, Node>();
+        this.entrances = new HashMap<Integer, List<Node>>();
+        this.borders = new HashMap<Integer, List<Crossing>>();
+    }
+
+    private static int clusterOf(Point2D point) {
+        int cx = Math.min(CLUSTERS - 1, point.getX() / CLUSTER_SIZE);
+        int cy = Math.min(CLUSTERS - 1, point.getY() / CLUSTER_SIZE);
+        return cx * CLUSTERS + cy;
+    }
+
+    // returns the points to walk to one after another to get from start to dest,
+    // the last one being dest. Returns null if there is no known way
+    public synchronized List<Point3D> findWaypoints(Point3D start, Point3D dest) {
+        List<Point3D> res = new LinkedList<Point3D>();
+        if(start.lMaxDistanceTo(dest) <= DIRECT_DISTANCE) {
+            res.add(dest);
+            return res;
+        }
+
+        // temporary nodes for start and dest, connected to the entrances of their clusters
+        Node startNode = new Node(start);
+        Node destNode = new Node(dest);
+        for(Node entrance : getEntrances(clusterOf(start))) {
+            int steps = findLocalPath(start, entrance.point);
+            if(steps >= 0) {
+                startNode.edges.put(entrance, steps);
+            }
+        }
+        Map<Node, Integer> toDest = new HashMap<Node, Integer>();
+        for(Node entrance : getEntrances(clusterOf(dest))) {
+            int steps = findLocalPath(entrance.point, dest);
+            if(steps >= 0) {
+                toDest.put(entrance, steps);
+            }
+        }
+
+        // A* on the entrance graph, a step costs 1 in any direction so the maximum norm fits
+        PriorityQueue<SearchEntry> openList = new PriorityQueue<SearchEntry>();
+        Map<Node, Integer> costs = new HashMap<Node, Integer>();
+        Map<Node, Node> previous = new HashMap<Node, Node>();
+        costs.put(startNode, 0);
+        openList.add(new SearchEntry(startNode, 0));
+        // unreachable destinations would otherwise explore everything up to the limit
+        int maxExpansions = Math.min(MAX_EXPANSIONS,
+                BASE_EXPANSIONS + CLUSTER_EXPANSIONS * (start.lMaxDistanceTo(dest) / CLUSTER_SIZE));
+        int expansions = 0;
+        while(!openList.isEmpty() && expansions < maxExpansions) {
+            SearchEntry entry = openList.poll();
+            Node current = entry.node;
+            int cost = costs.get(current);
+            if(entry.priority > cost + current.point.lMaxDistanceTo(dest)) {
+                // outdated entry, node was queued again with a lower cost
+                continue;
+            }
+            if(current == destNode) {
+                for(Node cur = destNode; cur != startNode; cur = previous.get(cur)) {
+                    res.add(0, cur.point);
+                }
+                return res;
+            }
+            expansions++;
+
+            if(current != startNode) {
+                connect(current);
+            }
+            Integer lastSteps = toDest.get(current);
+            if(lastSteps != null) {
+                relax(current, destNode, cost + lastSteps, dest, openList, costs, previous);
+            }
+            for(Map.Entry<Node, Integer> edge : current.edges.entrySet()) {
+                relax(current, edge.getKey(), cost + edge.getValue(), dest, openList, costs, previous);
+            }
+        }
+        return null;
+    }
+
+    private void relax(Node from, Node to, int cost, Point3D dest, PriorityQueue<SearchEntry> openList,
+            Map<Node, Integer> costs, Map<Node, Node> previous) {
+        Integer known = costs.get(to);
+        if(known != null && known <= cost) {
+            return;
+        }
+        costs.put(to, cost);
+        previous.put(to, from);
+        openList.add(new SearchEntry(to, cost + to.point.lMaxDistanceTo(dest)));
+    }
+
+    // number of steps between two points, -1 if there's no short path
+    private int findLocalPath(Point3D from, Point3D to) {
+        if(from.equals(to)) {
+            return 0;
+        }
+        Pathfinder finder = new Pathfinder(from, to, lister);
+        if(!finder.findPath(LOCAL_ITERATIONS)) {
+            return -1;
+        }
+        return finder.getPathLength() - 1;
+    }
+
+    // add the edges from a node to the other entrances of its cluster
+    private void connect(Node node) {
+        if(node.connected) {
+            return;
+        }
+        for(Node other : getEntrances(clusterOf(node.point))) {
+            if(other == node) {
+                continue;
+            }
+            int steps = findLocalPath(node.point, other.point);
+            if(steps >= 0) {
+                node.edges.put(other, steps);
+            }
+        }
+        node.connected = true;
+    }
+
+    private Node getNode(Point3D point) {
+        Node node = nodes.get(point);
+        if(node == null) {
+            node = new Node(point);
+            nodes.put(point, node);
+        }
+        return node;
+    }
+
+    private List<Node> getEntrances(int cluster) {
+        List<Node> res = entrances.get(cluster);
+        if(res != null) {
+            return res;
+        }
+
+        res = new ArrayList<Node>();
+        int cx = cluster / CLUSTERS, cy = cluster % CLUSTERS;
+        List<List<Crossing>> ownBorders = new ArrayList<List<Crossing>>(4);
+        if(cx > 0) {
+            ownBorders.add(getBorder(cx - 1, cy, true));
+        }
+        if(cx < CLUSTERS - 1) {
+            ownBorders.add(getBorder(cx, cy, true));
+        }
+        if(cy > 0) {
+            ownBorders.add(getBorder(cx, cy - 1, false));
+        }
+        if(cy < CLUSTERS - 1) {
+            ownBorders.add(getBorder(cx, cy, false));
+        }
+
+        for(List<Crossing> border : ownBorders) {
+            for(Crossing crossing : border) {
+                if(clusterOf(crossing.from) == cluster) {
+                    Node from = getNode(crossing.from);
+                    from.edges.put(getNode(crossing.to), 1);
+                    if(!res.contains(from)) {
+                        res.add(from);
+                    }
+                } else {
+                    Node to = getNode(crossing.to);
+                    if(!res.contains(to)) {
+                        res.add(to);
+                    }
+                }
+            }
+        }
+        entrances.put(cluster, res);
+        return res;
+    }
+
+    // the crossings between cluster (cx, cy) and its neighbour in x or y direction
+    private List<Crossing> getBorder(int cx, int cy, boolean inX) {
+        int key = (cx * CLUSTERS + cy) * 2 + (inX ? 0 : 1);
+        List<Crossing> res = borders.get(key);
+        if(res != null) {
+            return res;
+        }
+
+        List<Crossing> forward = new ArrayList<Crossing>();
+        List<Crossing> backward = new ArrayList<Crossing>();
+        for(int i = 0; i < CLUSTER_SIZE; i++) {
+            Point2D a, b;
+            if(inX) {
+                a = new Point2D(cx * CLUSTER_SIZE + CLUSTER_SIZE - 1, cy * CLUSTER_SIZE + i);
+                b = new Point2D(a.getX() + 1, a.getY());
+            } else {
+                a = new Point2D(cx * CLUSTER_SIZE + i, cy * CLUSTER_SIZE + CLUSTER_SIZE - 1);
+                b = new Point2D(a.getX(), a.getY() + 1);
+            }
+            addCrossings(a, a.getDirectionTo(b), i, forward);
+            addCrossings(b, b.getDirectionTo(a), i, backward);
+        }
+        res = new ArrayList<Crossing>();
+        res.addAll(selectEntrances(forward));
+        res.addAll(selectEntrances(backward));
+        borders.put(key, res);
+        return res;
+    }
+
+    private void addCrossings(Point2D from, Direction dir, int index, List<Crossing> res) {
+        for(int z : getStandingHeights(from)) {
+            Point3D start = new Point3D(from, z);
+            Point3D dest = SLData.get().getElevatedPoint(start, dir, lister);
+            if(dest != null) {
+                res.add(new Crossing(start, dest, index));
+            }
+        }
+    }
+
+    // heights at which a mobile could stand on a location: land and the top of surfaces
+    private List<Integer> getStandingHeights(Point2D point) {
+        SLMap map = SLData.get().getMap();
+        SLTiles tiles = SLData.get().getTiles();
+        List<Integer> res = new ArrayList<Integer>();
+        if(!tiles.getLandTile(map.getTextureID(point)).isImpassable()) {
+            res.add((int) map.getElevation(point));
+        }
+        for(SLStatic stat : lister.getStaticsAndDynamicsAtLocation(point)) {
+            StaticTile tile = tiles.getStaticTile(stat.getStaticID());
+            if(!tile.isSurface() && !tile.isStair()) {
+                continue;
+            }
+            int z = stat.getLocation().getZ() + tile.height;
+            if(z <= Point3D.MAX_ELEVATION && !res.contains(z)) {
+                res.add(z);
+            }
+        }
+        return res;
+    }
+
+    // neighbouring crossings on similar heights lead to the same area,
+    // so only use the one in the middle of such a run
+    private List<Crossing> selectEntrances(List<Crossing> crossings) {
+        List<List<Crossing>> runs = new ArrayList<List<Crossing>>();
+        for(Crossing crossing : crossings) {
+            List<Crossing> continued = null;
+            for(List<Crossing> run : runs) {
+                Crossing last = run.get(run.size() - 1);
+                if(last.index == crossing.index - 1 &&
+                        Math.abs(last.from.getZ() - crossing.from.getZ()) <= MAX_RUN_DELTA_Z) {
+                    continued = run;
+                    break;
+                }
+            }
+            if(continued == null) {
+                continued = new ArrayList<Crossing>();
+                runs.add(continued);
+            }
+            continued.add(crossing);
+        }
+
+        List<Crossing> res = new ArrayList<Crossing>(runs.size());
+        for(List<Crossing> run : runs) {
+            res.add(run.get(run.size() / 2));
+        }
+        return res;
+    }
+}
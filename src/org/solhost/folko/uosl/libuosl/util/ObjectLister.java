@@ -22,10 +22,35 @@ import java.util.List;
 
 import org.solhost.folko.uosl.libuosl.data.SLStatic;
 import org.solhost.folko.uosl.libuosl.types.Point2D;
+import org.solhost.folko.uosl.libuosl.types.Point3D;
 
 // something that can list static entries at a given location.
 // used to implement things like move checking for NPCs and path finding
 public interface ObjectLister {
+    // receives the entries at a location without an SLStatic being created for each of them
+    public interface StaticVisitor {
+        public void visitStatic(long serial, int staticID, int z, int hue);
+    }
+
     // return entries with all Z values, e.g. items and statics
     public List<SLStatic> getStaticsAndDynamicsAtLocation(Point2D loc);
+
+    // same entries as getStaticsAndDynamicsAtLocation, but passed to a visitor.
+    // implementations should override this so that the move check doesn't allocate
+    public default void visitStaticsAndDynamicsAtLocation(Point2D loc, StaticVisitor visitor) {
+        for(SLStatic stat : getStaticsAndDynamicsAtLocation(loc)) {
+            Point3D statLoc = stat.getLocation();
+            visitor.visitStatic(stat.getSerial(), stat.getStaticID(), statLoc.getZ(), stat.getHue());
+        }
+    }
+
+    // whether visitDynamicsAtLocation can be used instead of visitStaticsAndDynamicsAtLocation,
+    // the statics are then taken from the precomputed map data
+    public default boolean listsDynamicsSeparately() {
+        return false;
+    }
+
+    // only the dynamic entries of visitStaticsAndDynamicsAtLocation, in the same order
+    public default void visitDynamicsAtLocation(Point2D loc, StaticVisitor visitor) {
+    }
 }
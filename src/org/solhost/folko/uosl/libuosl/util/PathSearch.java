@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.libuosl.util;
+
+import java.util.Arrays;
+
+// search state for the A* in Pathfinder. Points are packed into ints and all
+// node data is kept in parallel arrays that are reused between searches, so a
+// search doesn't create any objects for its nodes. The open list is a binary heap
+// that knows the position of each node so that decreasing a key is O(log n).
+// Not thread-safe, Pathfinder keeps one instance per thread
+final class PathSearch {
+    private static final int CLOSED = -1;
+    private static final int NOT_QUEUED = -2;
+
+    // nodes
+    private int[] points, costs, priorities, parents, heapPos;
+    private int nodeCount;
+
+    // open addressing hash table point -> node + 1, slots are valid if their stamp is current
+    private int[] slots, slotStamps;
+    private int stamp;
+
+    // indices of nodes ordered by priority
+    private int[] heap;
+    private int heapSize;
+
+    public PathSearch() {
+        allocateNodes(1024);
+        allocateSlots(2048);
+    }
+
+    public static int pack(int x, int y, int z) {
+        return x | (y << 11) | ((z & 0xFF) << 22);
+    }
+
+    public static int unpackX(int point) {
+        return point & 0x7FF;
+    }
+
+    public static int unpackY(int point) {
+        return (point >>> 11) & 0x7FF;
+    }
+
+    public static int unpackZ(int point) {
+        return (byte) (point >>> 22);
+    }
+
+    private void allocateNodes(int capacity) {
+        points = new int[capacity];
+        costs = new int[capacity];
+        priorities = new int[capacity];
+        parents = new int[capacity];
+        heapPos = new int[capacity];
+        heap = new int[capacity];
+    }
+
+    private void allocateSlots(int capacity) {
+        slots = new int[capacity];
+        slotStamps = new int[capacity];
+    }
+
+    public void reset() {
+        nodeCount = 0;
+        heapSize = 0;
+        stamp++;
+        if(stamp == 0) {
+            // wrapped around, old stamps could become valid again
+            Arrays.fill(slotStamps, 0);
+            stamp = 1;
+        }
+    }
+
+    private int slotFor(int point) {
+        int mask = slots.length - 1;
+        int slot = (point * 0x9E3779B9) >>> 7 & mask;
+        while(slotStamps[slot] == stamp && points[slots[slot] - 1] != point) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // returns the node for a point or -1 if it wasn't added yet
+    public int find(int point) {
+        int slot = slotFor(point);
+        if(slotStamps[slot] != stamp) {
+            return -1;
+        }
+        return slots[slot] - 1;
+    }
+
+    // adds a node that isn't in the search yet, it is not queued
+    public int add(int point) {
+        if(nodeCount == points.length) {
+            int capacity = points.length * 2;
+            points = Arrays.copyOf(points, capacity);
+            costs = Arrays.copyOf(costs, capacity);
+            priorities = Arrays.copyOf(priorities, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            heapPos = Arrays.copyOf(heapPos, capacity);
+            heap = Arrays.copyOf(heap, capacity);
+        }
+        if((nodeCount + 1) * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        int node = nodeCount++;
+        points[node] = point;
+        parents[node] = -1;
+        heapPos[node] = NOT_QUEUED;
+        int slot = slotFor(point);
+        slots[slot] = node + 1;
+        slotStamps[slot] = stamp;
+        return node;
+    }
+
+    private void rehash(int capacity) {
+        allocateSlots(capacity);
+        stamp = 1;
+        for(int node = 0; node < nodeCount; node++) {
+            int slot = slotFor(points[node]);
+            slots[slot] = node + 1;
+            slotStamps[slot] = stamp;
+        }
+    }
+
+    public int getPoint(int node) {
+        return points[node];
+    }
+
+    public int getCost(int node) {
+        return costs[node];
+    }
+
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    public boolean isClosed(int node) {
+        return heapPos[node] == CLOSED;
+    }
+
+    public boolean isQueued(int node) {
+        return heapPos[node] >= 0;
+    }
+
+    // sets cost and parent of a node and puts it into the open list or moves it up there
+    public void update(int node, int parent, int cost, int priority) {
+        parents[node] = parent;
+        costs[node] = cost;
+        priorities[node] = priority;
+        if(heapPos[node] == NOT_QUEUED) {
+            heap[heapSize] = node;
+            heapPos[node] = heapSize;
+            heapSize++;
+        }
+        siftUp(heapPos[node]);
+    }
+
+    public boolean isOpenEmpty() {
+        return heapSize == 0;
+    }
+
+    // removes the node with the lowest priority from the open list and closes it
+    public int poll() {
+        int node = heap[0];
+        heapSize--;
+        if(heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapPos[heap[0]] = 0;
+            siftDown(0);
+        }
+        heapPos[node] = CLOSED;
+        return node;
+    }
+
+    private void siftUp(int pos) {
+        int node = heap[pos];
+        while(pos > 0) {
+            int parentPos = (pos - 1) / 2;
+            int parentNode = heap[parentPos];
+            if(priorities[parentNode] <= priorities[node]) {
+                break;
+            }
+            heap[pos] = parentNode;
+            heapPos[parentNode] = pos;
+            pos = parentPos;
+        }
+        heap[pos] = node;
+        heapPos[node] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int node = heap[pos];
+        while(true) {
+            int child = pos * 2 + 1;
+            if(child >= heapSize) {
+                break;
+            }
+            if(child + 1 < heapSize && priorities[heap[child + 1]] < priorities[heap[child]]) {
+                child++;
+            }
+            if(priorities[heap[child]] >= priorities[node]) {
+                break;
+            }
+            heap[pos] = heap[child];
+            heapPos[heap[pos]] = pos;
+            pos = child;
+        }
+        heap[pos] = node;
+        heapPos[node] = pos;
+    }
+}
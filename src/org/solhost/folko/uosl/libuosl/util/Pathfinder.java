@@ -19,102 +19,51 @@
 package org.solhost.folko.uosl.libuosl.util;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Set;
 
 import org.solhost.folko.uosl.libuosl.data.SLData;
 import org.solhost.folko.uosl.libuosl.types.Direction;
 import org.solhost.folko.uosl.libuosl.types.Point3D;
 
 public class Pathfinder {
-    private final Point3D start, dest;
-    private final ObjectLister lister;
-    private PathEntry last;
-    private final Map<Point3D, Integer> knownCosts;
-    private int iterations;
-
-    private class PathEntry implements Comparable<PathEntry> {
-        Point3D point;
-        PathEntry prev;
-        int cost;
-
-        public PathEntry(Point3D point, PathEntry prev, int cost) {
-            this.point = point;
-            this.prev = prev;
-            this.cost = cost;
-        }
-
-        @Override
-        public int compareTo(PathEntry o) {
-            return cost - o.cost;
-        }
-
+    private static final ThreadLocal<PathSearch> searches = new ThreadLocal<PathSearch>() {
         @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + getOuterType().hashCode();
-            result = prime * result + ((point == null) ? 0 : point.hashCode());
-            return result;
+        protected PathSearch initialValue() {
+            return new PathSearch();
         }
+    };
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            PathEntry other = (PathEntry) obj;
-            if (!getOuterType().equals(other.getOuterType()))
-                return false;
-            if (point == null) {
-                if (other.point != null)
-                    return false;
-            } else if (!point.equals(other.point))
-                return false;
-            return true;
-        }
-
-        private Pathfinder getOuterType() {
-            return Pathfinder.this;
-        }
-    }
+    private final Point3D start, dest;
+    private final ObjectLister lister;
+    private List<Direction> path;
+    private int iterations;
 
     public Pathfinder(Point3D start, Point3D dest, ObjectLister lister) {
         this.start = start;
         this.dest = dest;
         this.lister = lister;
-        this.knownCosts = new HashMap<Point3D, Integer>();
     }
 
-    private List<Point3D> getValidNeighbours(Point3D src) {
-        List<Point3D> res = new ArrayList<Point3D>(8);
-        for(Direction dir : Direction.values()) {
-            Point3D nxt = SLData.get().getElevatedPoint(src, dir, lister);
-            if(nxt != null) {
-                res.add(nxt);
-            }
-        }
-        return res;
+    // h(x): approximated cost from x to dest
+    private int h(int x, int y) {
+        return distanceToDest(x, y);
     }
 
-    // h(x): approximated cost from x to dest
-    private int h(PathEntry e) {
-        return e.point.distanceTo(dest);
+    // same as Point2D.distanceTo(dest)
+    private int distanceToDest(int x, int y) {
+        int dx = x - dest.getX();
+        int dy = y - dest.getY();
+        return (int) Math.round(Math.sqrt(dx * dx + dy * dy));
     }
 
     // c(from, to) -> cost for this edge
-    private int c(Point3D from, Point3D to) {
-        boolean isShorter = to.distanceTo(dest) < from.distanceTo(dest);
-        int deltaZBefore = Math.abs(to.getZ() - dest.getZ());
-        int deltaZNow =  Math.abs(from.getZ() - dest.getZ());
+    private int c(int fromX, int fromY, int fromZ, int toX, int toY, int toZ) {
+        int toDistance = distanceToDest(toX, toY);
+        boolean isShorter = toDistance < distanceToDest(fromX, fromY);
+        int deltaZBefore = Math.abs(toZ - dest.getZ());
+        int deltaZNow =  Math.abs(fromZ - dest.getZ());
 
         int cost = 0;
         if(isShorter) {
@@ -123,7 +72,7 @@ public class Pathfinder {
             cost++;
         }
         // when near the destination, take Z difference into account
-        if(to.distanceTo(dest) < 30 && deltaZNow > 5) {
+        if(toDistance < 30 && deltaZNow > 5) {
             if(deltaZBefore <= deltaZNow) {
                 cost++;
             } else {
@@ -136,84 +85,97 @@ public class Pathfinder {
     // A* implementation
     public boolean findPath(int maxIter) {
         iterations = 0;
-        PriorityQueue<PathEntry> openList = new PriorityQueue<PathEntry>();
-        Set<Point3D> closedList = new HashSet<Point3D>();
+        path = null;
+
+        PathSearch search = searches.get();
+        search.reset();
 
-        openList.add(new PathEntry(start, null, 0));
-        knownCosts.put(start, 0);
+        int destPoint = PathSearch.pack(dest.getX(), dest.getY(), dest.getZ());
+        int startNode = search.add(PathSearch.pack(start.getX(), start.getY(), start.getZ()));
+        search.update(startNode, -1, 0, 0);
         do {
-            PathEntry currentNode = openList.poll();
-            if(currentNode.point.equals(dest)) {
-                last = currentNode;
+            int currentNode = search.poll();
+            int current = search.getPoint(currentNode);
+            if(current == destPoint) {
+                path = buildPath(search, currentNode);
                 return true;
             }
 
-            // Means we already visited this node -> don't visit again to avoid cycles
-            closedList.add(currentNode.point);
+            int curX = PathSearch.unpackX(current), curY = PathSearch.unpackY(current), curZ = PathSearch.unpackZ(current);
+            Point3D curPoint = new Point3D(curX, curY, curZ);
 
             // check all directions
-            for(Point3D neigh : getValidNeighbours(currentNode.point)) {
+            for(Direction dir : Direction.values()) {
+                Point3D neigh = SLData.get().getElevatedPoint(curPoint, dir, lister);
+                if(neigh == null) {
+                    continue;
+                }
+                int neighX = neigh.getX(), neighY = neigh.getY(), neighZ = neigh.getZ();
+                int neighPoint = PathSearch.pack(neighX, neighY, neighZ);
+                int neighNode = search.find(neighPoint);
+
                 // already visited
-                if(closedList.contains(neigh)) {
+                if(neighNode != -1 && search.isClosed(neighNode)) {
                     continue;
                 }
-                int tentative_g = knownCosts.get(currentNode.point) + c(currentNode.point, neigh);
-                PathEntry successor = new PathEntry(neigh, currentNode, tentative_g);
+                int tentative_g = search.getCost(currentNode) + c(curX, curY, curZ, neighX, neighY, neighZ);
 
                 // we already know this point via another path that's cheaper
-                if(knownCosts.containsKey(successor.point) && tentative_g >= knownCosts.get(successor.point)) {
+                if(neighNode != -1 && search.isQueued(neighNode) && tentative_g >= search.getCost(neighNode)) {
                     continue;
                 }
-                successor.prev = currentNode;
-                successor.cost = tentative_g + h(successor);
-                knownCosts.put(successor.point, tentative_g);
-                if(openList.contains(successor)) {
-                    openList.remove(successor);
+                if(neighNode == -1) {
+                    neighNode = search.add(neighPoint);
                 }
-                openList.add(successor);
+                search.update(neighNode, currentNode, tentative_g, tentative_g + h(neighX, neighY));
             }
             iterations++;
-        } while(!openList.isEmpty() && iterations < maxIter);
+        } while(!search.isOpenEmpty() && iterations < maxIter);
 
         return false;
     }
 
+    private List<Direction> buildPath(PathSearch search, int lastNode) {
+        List<Direction> res = new ArrayList<Direction>();
+        int cur = lastNode;
+        int prev = search.getParent(cur);
+        while(prev != -1) {
+            Point3D curPoint = unpack(search.getPoint(cur));
+            Point3D prevPoint = unpack(search.getPoint(prev));
+            res.add(prevPoint.getDirectionTo(curPoint));
+            cur = prev;
+            prev = search.getParent(cur);
+        }
+        Collections.reverse(res);
+        return res;
+    }
+
+    private static Point3D unpack(int point) {
+        return new Point3D(PathSearch.unpackX(point), PathSearch.unpackY(point), PathSearch.unpackZ(point));
+    }
+
     public Point3D getStart() {
         return start;
     }
 
-    public List<Direction> getPath() {
-        LinkedList<Direction> res = new LinkedList<Direction>();
-        PathEntry cur = last, prev;
-
-        do {
-            prev = cur.prev;
-            if(prev != null) {
-                Direction d = prev.point.getDirectionTo(cur.point);
-                res.addFirst(d);
-            }
-            cur = prev;
-        } while(cur != null);
+    public Point3D getDest() {
+        return dest;
+    }
 
-        return res;
+    public List<Direction> getPath() {
+        return new LinkedList<Direction>(path);
     }
 
     public boolean hasPath() {
-        return last != null;
+        return path != null;
     }
 
     public int getPathLength() {
-        if(last == null) {
+        if(path == null) {
             return 0;
         }
-
-        PathEntry cur = last;
-        int len = 0;
-        do {
-            cur = cur.prev;
-            len++;
-        } while(cur != null);
-        return len;
+        // number of points including the start
+        return path.size() + 1;
     }
 
     public String getPathInfo() {
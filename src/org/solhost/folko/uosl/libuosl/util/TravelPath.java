@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.libuosl.util;
+
+import java.util.List;
+
+import org.solhost.folko.uosl.libuosl.types.Direction;
+import org.solhost.folko.uosl.libuosl.types.Point3D;
+
+// a long distance path given by waypoints of a ClusterPathfinder. The steps
+// between two waypoints are only searched when the walker gets there
+public class TravelPath {
+    private static final int SEGMENT_ITERATIONS = 500;
+    private final List<Point3D> waypoints;
+    private final Point3D dest;
+    private CachedPath segment;
+    private int next;
+
+    public TravelPath(List<Point3D> waypoints) {
+        if(waypoints.isEmpty()) {
+            throw new IllegalArgumentException("no waypoints");
+        }
+        this.waypoints = waypoints;
+        this.dest = waypoints.get(waypoints.size() - 1);
+        this.next = 0;
+    }
+
+    public Point3D getDest() {
+        return dest;
+    }
+
+    // direction of the next step when standing at from, null if the next waypoint can't be reached
+    public Direction getNextDirection(Point3D from, ObjectLister lister) {
+        while(next < waypoints.size() - 1 && from.distanceTo(waypoints.get(next)) == 0) {
+            next++;
+            segment = null;
+        }
+        Point3D waypoint = waypoints.get(next);
+        if(segment == null || !segment.canContinue(from, waypoint)) {
+            Pathfinder finder = new Pathfinder(from, waypoint, lister);
+            if(!finder.findPath(SEGMENT_ITERATIONS)) {
+                segment = null;
+                return null;
+            }
+            segment = new CachedPath(finder);
+        }
+        return segment.getNextDirection();
+    }
+
+    // the step returned by getNextDirection was walked
+    public void advance(Point3D newPosition) {
+        if(segment != null) {
+            segment.advance(newPosition);
+        }
+    }
+
+    // the step returned by getNextDirection was blocked, search again next time
+    public void resetSegment() {
+        segment = null;
+    }
+}
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.slbot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.solhost.folko.uosl.libuosl.data.SLData;
+import org.solhost.folko.uosl.libuosl.network.SendableMobile;
+import org.solhost.folko.uosl.libuosl.network.SendableObject;
+import org.solhost.folko.uosl.libuosl.network.packets.*;
+import org.solhost.folko.uosl.libuosl.types.Direction;
+import org.solhost.folko.uosl.libuosl.types.Items;
+import org.solhost.folko.uosl.libuosl.types.Mobiles;
+import org.solhost.folko.uosl.libuosl.types.Point3D;
+import org.solhost.folko.uosl.slclient.models.Connection;
+import org.solhost.folko.uosl.slclient.models.Connection.ConnectionHandler;
+
+// a simulated player: logs in by name (creating the character if needed) and then
+// walks around, talks, opens its backpack and attacks mobiles it sees.
+// Packets arrive on the connection's thread, actions are triggered by the driver through tick().
+// Never send while holding the bot's lock from the driver: the connection thread calls
+// us while holding the connection's lock
+public class Bot implements ConnectionHandler {
+    private enum State { CONNECTING, LOGGING_IN, CREATING, PLAYING, DEAD }
+
+    private static final long MOVE_DELAY = 200; // ms between steps
+    private static final int MAX_UNACKED_MOVES = 3;
+    private static final int MAX_KNOWN_MOBILES = 32;
+    private static final String[] PHRASES = {"hello", "hail", "what a nice day", "buy", "sell", "bank", "guards"};
+
+    private final String name, destination;
+    private final BotStats stats;
+    private final Random random;
+    private final long[] moveSendTimes;
+    private final List<Long> knownMobiles;
+    private Connection connection;
+    private State state;
+    private boolean loginSent;
+    private long serial, backpackSerial;
+    private Point3D location;
+    private Direction facing, walkDirection;
+    private int walkSteps;
+    private short nextMoveSequence, lastAckedMoveSequence;
+    private long nextActionTime;
+
+    public Bot(String name, String destination, BotStats stats, long randomSeed) {
+        this.name = name;
+        this.destination = destination;
+        this.stats = stats;
+        this.random = new Random(randomSeed);
+        this.moveSendTimes = new long[256];
+        this.knownMobiles = new ArrayList<Long>();
+        this.state = State.CONNECTING;
+    }
+
+    public void start() throws IOException {
+        Connection con = new Connection(this, destination);
+        boolean needLogin;
+        synchronized(this) {
+            connection = con;
+            // if we connected immediately, onConnected couldn't send the login yet
+            needLogin = (state == State.LOGGING_IN && !loginSent);
+            loginSent |= needLogin;
+        }
+        if(needLogin) {
+            stats.packetsSent.incrementAndGet();
+            con.sendPacket(createLogin(false));
+        }
+    }
+
+    public void stop() {
+        Connection con;
+        synchronized(this) {
+            con = connection;
+            state = State.DEAD;
+        }
+        if(con != null) {
+            con.disconnect();
+        }
+    }
+
+    public synchronized boolean isPlaying() {
+        return state == State.PLAYING;
+    }
+
+    // called by the driver, performs the next action if it's due
+    public void tick(long now) {
+        Connection con;
+        SLPacket packet;
+        synchronized(this) {
+            if(state != State.PLAYING || now < nextActionTime) {
+                return;
+            }
+            con = connection;
+            packet = nextAction(now);
+        }
+        if(packet != null) {
+            stats.packetsSent.incrementAndGet();
+            con.sendPacket(packet);
+        }
+    }
+
+    private SLPacket nextAction(long now) {
+        nextActionTime = now + MOVE_DELAY;
+        int choice = random.nextInt(100);
+        if(choice < 3) {
+            stats.speeches.incrementAndGet();
+            nextActionTime = now + 1000;
+            String text = PHRASES[random.nextInt(PHRASES.length)];
+            return new SpeechRequestPacket(SpeechRequestPacket.MODE_BARK, 0x0000FF, text);
+        } else if(choice < 5 && backpackSerial != 0) {
+            stats.containerOpens.incrementAndGet();
+            nextActionTime = now + 1000;
+            return new DoubleClickPacket(backpackSerial);
+        } else if(choice < 6 && !knownMobiles.isEmpty()) {
+            stats.attacks.incrementAndGet();
+            nextActionTime = now + 1000;
+            return new AttackPacket(knownMobiles.get(random.nextInt(knownMobiles.size())));
+        }
+        return nextMove(now);
+    }
+
+    private SLPacket nextMove(long now) {
+        if(((nextMoveSequence - lastAckedMoveSequence) & 0xFF) > MAX_UNACKED_MOVES) {
+            // wait for acks like the real client
+            return null;
+        }
+
+        if(walkSteps <= 0 || walkDirection == null) {
+            walkDirection = Direction.values()[random.nextInt(Direction.values().length)];
+            walkSteps = 3 + random.nextInt(10);
+        }
+
+        if(facing != walkDirection) {
+            // only turning
+            facing = walkDirection;
+        } else {
+            Point3D newLoc = SLData.get().getElevatedPoint(location, walkDirection, SLData.get().getStatics());
+            if(newLoc == null) {
+                // blocked, try another direction next time
+                walkSteps = 0;
+                return null;
+            }
+            location = newLoc;
+            walkSteps--;
+        }
+
+        short sequence = nextMoveSequence;
+        nextMoveSequence = (short) ((nextMoveSequence + 1) & 0xFF);
+        moveSendTimes[sequence] = System.nanoTime();
+        stats.movesSent.incrementAndGet();
+        return new MoveRequestPacket(walkDirection, sequence, false);
+    }
+
+    private LoginPacket createLogin(boolean create) {
+        LoginPacket login = new LoginPacket();
+        login.setName(name);
+        login.setPassword(name);
+        if(create) {
+            login.setSerial(0);
+            login.setSeed(0);
+            login.setGender((short) Mobiles.MOBTYPE_HUMAN_MALE);
+            login.setStats((short) 40, (short) 35, (short) 25);
+            login.setLook((short) 0, (short) 0, (short) 0);
+        } else {
+            login.setSerial(LoginPacket.LOGIN_BY_NAME);
+            login.setSeed(LoginPacket.LOGIN_BY_NAME);
+        }
+        login.prepareSend();
+        return login;
+    }
+
+    // only for the connection's thread, it holds the connection's lock already
+    private void send(SLPacket packet) {
+        stats.packetsSent.incrementAndGet();
+        connection.sendPacket(packet);
+    }
+
+    @Override
+    public synchronized void onConnected() {
+        stats.connects.incrementAndGet();
+        state = State.LOGGING_IN;
+        if(connection != null && !loginSent) {
+            loginSent = true;
+            send(createLogin(false));
+        }
+    }
+
+    @Override
+    public synchronized void onIncomingPacket(SLPacket packet) {
+        stats.packetsReceived.incrementAndGet();
+        switch(packet.getID()) {
+        case LoginErrorPacket.ID:
+            if(state == State.LOGGING_IN && ((LoginErrorPacket) packet).getReason() == LoginErrorPacket.REASON_CHAR_NOT_FOUND) {
+                state = State.CREATING;
+                send(createLogin(true));
+            } else {
+                stats.loginErrors.incrementAndGet();
+                state = State.DEAD;
+            }
+            break;
+        case InitPlayerPacket.ID:
+            serial = ((InitPlayerPacket) packet).getSerial();
+            break;
+        case LocationPacket.ID:
+            SendableMobile self = ((LocationPacket) packet).getMobile();
+            if(self.getSerial() == serial) {
+                location = self.getLocation();
+                facing = self.getFacing();
+                if(state != State.PLAYING) {
+                    stats.logins.incrementAndGet();
+                    state = State.PLAYING;
+                }
+            }
+            break;
+        case AllowMovePacket.ID:
+            short acked = ((AllowMovePacket) packet).getSequence();
+            lastAckedMoveSequence = (short) ((acked + 1) & 0xFF);
+            stats.movesAcked.incrementAndGet();
+            stats.addMoveLatency(System.nanoTime() - moveSendTimes[acked & 0xFF]);
+            break;
+        case DenyMovePacket.ID:
+            DenyMovePacket deny = (DenyMovePacket) packet;
+            stats.movesDenied.incrementAndGet();
+            nextMoveSequence = 0;
+            lastAckedMoveSequence = 0;
+            location = deny.getLocation();
+            facing = deny.getFacing();
+            walkSteps = 0;
+            break;
+        case EquipPacket.ID:
+            EquipPacket equip = (EquipPacket) packet;
+            if(equip.getMobile().getSerial() == serial && equip.getItem().getGraphic() == Items.GFX_BACKPACK) {
+                backpackSerial = equip.getItem().getSerial();
+            }
+            break;
+        case SendObjectPacket.ID:
+            SendableObject obj = ((SendObjectPacket) packet).getObject();
+            long objSerial = obj.getSerial();
+            if(objSerial < Items.SERIAL_FIRST && objSerial != serial && !knownMobiles.contains(objSerial)) {
+                if(knownMobiles.size() == MAX_KNOWN_MOBILES) {
+                    knownMobiles.remove(0);
+                }
+                knownMobiles.add(objSerial);
+            }
+            break;
+        case RemoveObjectPacket.ID:
+            knownMobiles.remove(((RemoveObjectPacket) packet).getSerial());
+            break;
+        default:
+            break;
+        }
+    }
+
+    @Override
+    public synchronized void onRemoteDisconnect() {
+        if(state != State.DEAD) {
+            stats.disconnects.incrementAndGet();
+            state = State.DEAD;
+        }
+    }
+
+    @Override
+    public synchronized void onNetworkError(String reason) {
+        onRemoteDisconnect();
+    }
+}
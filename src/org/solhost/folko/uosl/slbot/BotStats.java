@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.slbot;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+// counters shared by all bots, read and reset by the reporter
+public class BotStats {
+    private static final int MAX_LATENCY_MS = 10000; // everything above goes into the last bucket
+    public final AtomicLong connects, logins, disconnects, loginErrors;
+    public final AtomicLong packetsSent, packetsReceived;
+    public final AtomicLong movesSent, movesAcked, movesDenied;
+    public final AtomicLong speeches, containerOpens, attacks;
+    private final AtomicIntegerArray moveLatencies; // histogram with 1 ms buckets
+
+    public BotStats() {
+        connects = new AtomicLong();
+        logins = new AtomicLong();
+        disconnects = new AtomicLong();
+        loginErrors = new AtomicLong();
+        packetsSent = new AtomicLong();
+        packetsReceived = new AtomicLong();
+        movesSent = new AtomicLong();
+        movesAcked = new AtomicLong();
+        movesDenied = new AtomicLong();
+        speeches = new AtomicLong();
+        containerOpens = new AtomicLong();
+        attacks = new AtomicLong();
+        moveLatencies = new AtomicIntegerArray(MAX_LATENCY_MS + 1);
+    }
+
+    public void addMoveLatency(long nanos) {
+        int ms = (int) Math.min(MAX_LATENCY_MS, nanos / 1000000);
+        moveLatencies.incrementAndGet(ms);
+    }
+
+    // the given percentiles (0..100) of the move latencies since the last call, in ms
+    public int[] takeMoveLatencyPercentiles(double... percentiles) {
+        int[] counts = new int[moveLatencies.length()];
+        long total = 0;
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = moveLatencies.getAndSet(i, 0);
+            total += counts[i];
+        }
+
+        int[] res = new int[percentiles.length];
+        for(int p = 0; p < percentiles.length; p++) {
+            if(total == 0) {
+                continue;
+            }
+            long wanted = Math.max(1, (long) Math.ceil(total * percentiles[p] / 100.0));
+            long seen = counts[0];
+            int bucket = 0;
+            while(seen < wanted && bucket < counts.length - 1) {
+                bucket++;
+                seen += counts[bucket];
+            }
+            res[p] = bucket;
+        }
+        return res;
+    }
+}
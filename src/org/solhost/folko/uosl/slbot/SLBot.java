@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Folke Will <folke.will@gmail.com>
+ *
+ * This file is part of JPhex.
+ *
+ * JPhex is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JPhex is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.solhost.folko.uosl.slbot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.solhost.folko.uosl.common.LogFormatter;
+import org.solhost.folko.uosl.libuosl.data.SLData;
+
+// headless load generator: connects many bots to a server and reports throughput,
+// move latencies and disconnects. Each bot uses its own slclient Connection.
+// usage: SLBot [-host host:port] [-bots n] [-seconds s] [-ramp bots per second] [-data dir]
+public class SLBot {
+    private static final Logger log = Logger.getLogger("slbot");
+    private static final long TICK_MILLIS = 20;
+    private static final long REPORT_MILLIS = 5000;
+    private final String destination;
+    private final int botCount, rampPerSecond;
+    private final long durationMillis;
+    private final BotStats stats;
+    private final List<Bot> bots;
+
+    public SLBot(String destination, int botCount, int rampPerSecond, long durationMillis) {
+        this.destination = destination;
+        this.botCount = botCount;
+        this.rampPerSecond = Math.max(1, rampPerSecond);
+        this.durationMillis = durationMillis;
+        this.stats = new BotStats();
+        this.bots = new ArrayList<Bot>(botCount);
+    }
+
+    public void run() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long end = start + durationMillis;
+        long nextReport = start + REPORT_MILLIS;
+        long lastReport = start;
+        long failedStarts = 0;
+
+        while(System.currentTimeMillis() < end) {
+            long now = System.currentTimeMillis();
+
+            // ramp up
+            long wanted = Math.min(botCount, (now - start) * rampPerSecond / 1000 + 1);
+            while(bots.size() < wanted) {
+                Bot bot = new Bot("bot" + bots.size(), destination, stats, bots.size());
+                bots.add(bot);
+                try {
+                    bot.start();
+                } catch(IOException e) {
+                    failedStarts++;
+                    log.fine("Couldn't start " + bots.size() + ": " + e.getMessage());
+                }
+            }
+
+            for(Bot bot : bots) {
+                bot.tick(now);
+            }
+
+            if(now >= nextReport) {
+                report(now - lastReport, failedStarts);
+                lastReport = now;
+                nextReport = now + REPORT_MILLIS;
+            }
+            Thread.sleep(TICK_MILLIS);
+        }
+
+        report(System.currentTimeMillis() - lastReport, failedStarts);
+        for(Bot bot : bots) {
+            bot.stop();
+        }
+    }
+
+    private void report(long intervalMillis, long failedStarts) {
+        double seconds = Math.max(1, intervalMillis) / 1000.0;
+        int playing = 0;
+        for(Bot bot : bots) {
+            if(bot.isPlaying()) {
+                playing++;
+            }
+        }
+        int[] latency = stats.takeMoveLatencyPercentiles(50, 90, 99, 100);
+        log.info(String.format("bots %d/%d playing, %d failed, %d disconnects, %d login errors",
+                playing, bots.size(), failedStarts, stats.disconnects.get(), stats.loginErrors.get()));
+        log.info(String.format("  packets/s: %.0f out, %.0f in; moves/s: %.0f sent, %.0f acked, %.0f denied",
+                stats.packetsSent.getAndSet(0) / seconds, stats.packetsReceived.getAndSet(0) / seconds,
+                stats.movesSent.getAndSet(0) / seconds, stats.movesAcked.getAndSet(0) / seconds,
+                stats.movesDenied.getAndSet(0) / seconds));
+        log.info(String.format("  move ack latency ms: p50 %d, p90 %d, p99 %d, max %d; speech %d, opens %d, attacks %d",
+                latency[0], latency[1], latency[2], latency[3],
+                stats.speeches.getAndSet(0), stats.containerOpens.getAndSet(0), stats.attacks.getAndSet(0)));
+    }
+
+    private static void setupLogger(Level level) {
+        Handler handler = new ConsoleHandler();
+        handler.setLevel(level);
+        handler.setFormatter(new LogFormatter());
+
+        Logger root = Logger.getLogger("");
+        for(Handler h : root.getHandlers()) {
+            root.removeHandler(h);
+        }
+        root.addHandler(handler);
+        root.setLevel(level);
+        // the connections log every connect and disconnect
+        Logger.getLogger("slclient").setLevel(Level.WARNING);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String destination = "localhost:2590", dataDir = "data";
+        int botCount = 100, ramp = 50;
+        long seconds = 60;
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            switch(args[i]) {
+            case "-host":       destination = args[i + 1]; break;
+            case "-bots":       botCount = Integer.parseInt(args[i + 1]); break;
+            case "-seconds":    seconds = Long.parseLong(args[i + 1]); break;
+            case "-ramp":       ramp = Integer.parseInt(args[i + 1]); break;
+            case "-data":       dataDir = args[i + 1]; break;
+            default:
+                System.err.println("unknown option " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        setupLogger(Level.INFO);
+        log.info("Loading game data from " + dataDir);
+        SLData.init(dataDir);
+        log.info(String.format("Running %d bots against %s for %d seconds", botCount, destination, seconds));
+        new SLBot(destination, botCount, ramp, seconds * 1000).run();
+        System.exit(0);
+    }
+}
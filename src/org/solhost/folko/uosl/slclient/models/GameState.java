@@ -124,7 +124,7 @@ public class GameState {
             lastMoveTime = getTimeMillis();
         } else {
             Point3D oldLoc = player.getLocation();
-            Point3D newLoc = SLData.get().getElevatedPoint(oldLoc, dir, (point) -> SLData.get().getStatics().getStaticsAndDynamicsAtLocation(point));
+            Point3D newLoc = SLData.get().getElevatedPoint(oldLoc, dir, SLData.get().getStatics());
             if(newLoc != null) {
                 MoveRequestPacket packet = new MoveRequestPacket(dir, nextMoveSequence++, false);
                 connection.sendPacket(packet);
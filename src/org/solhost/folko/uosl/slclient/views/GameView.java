@@ -357,7 +357,7 @@ public class GameView {
             texture = TexturePool.getLandTexture(1); // VOID texture like in real client
         } else {
             point = new Point3D(x, y, map.getTileElevation(x, y));
-            int landID = map.getTextureID(point);
+            int landID = map.getTextureID(x, y);
             LandTile landTile = tiles.getLandTile(landID);
             selfZ = point.getZ();
             eastZ = getZ(x + 1, y);